@@ -20,12 +20,17 @@ package org.apache.sling.scripting.sightly.js.impl;
 
 import javax.script.Bindings;
 import javax.script.Compilable;
+import javax.script.CompiledScript;
 import javax.script.ScriptContext;
 import javax.script.ScriptEngine;
 import javax.script.ScriptException;
 import javax.script.SimpleScriptContext;
 
 import java.io.Closeable;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.sling.api.scripting.LazyBindings;
 import org.apache.sling.scripting.core.ScriptNameAwareReader;
@@ -33,13 +38,21 @@ import org.apache.sling.scripting.sightly.SightlyException;
 import org.apache.sling.scripting.sightly.js.impl.async.AsyncContainer;
 import org.apache.sling.scripting.sightly.js.impl.async.TimingBindingsValuesProvider;
 import org.apache.sling.scripting.sightly.js.impl.async.UnaryCallback;
+import org.apache.sling.scripting.sightly.js.impl.cache.ModuleCache;
+import org.apache.sling.scripting.sightly.js.impl.cache.ScriptCache;
+import org.apache.sling.scripting.sightly.js.impl.cache.ScriptCacheInvalidator;
+import org.apache.sling.scripting.sightly.js.impl.cache.ScriptSource;
+import org.apache.sling.scripting.sightly.js.impl.cache.SourceStore;
 import org.apache.sling.scripting.sightly.js.impl.cjs.CommonJsModule;
+import org.apache.sling.scripting.sightly.js.impl.cjs.ModuleRegistry;
 import org.apache.sling.scripting.sightly.js.impl.loop.EventLoop;
 import org.apache.sling.scripting.sightly.js.impl.loop.EventLoopInterop;
 import org.apache.sling.scripting.sightly.js.impl.loop.Task;
+import org.apache.sling.scripting.sightly.js.impl.rhino.BudgetContextFactory;
 import org.apache.sling.scripting.sightly.js.impl.use.DependencyResolver;
 import org.apache.sling.scripting.sightly.js.impl.use.UseFunction;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.mozilla.javascript.Context;
 import org.slf4j.LoggerFactory;
 
@@ -51,18 +64,73 @@ public class JsEnvironment {
     private final ScriptEngine jsEngine;
     private final Bindings engineBindings;
     private final DependencyResolver dependencyResolver;
+    private final ScriptCache scriptCache;
+    private final ScriptCacheInvalidator scriptCacheInvalidator;
+    private final ModuleRegistry moduleRegistry;
+    private final ModuleCache moduleCache;
+    private final SourceStore sourceStore;
+    private final List<String> loadingModules = new ArrayList<>();
     private EventLoop eventLoop;
+    private BudgetContextFactory contextFactory;
+    private Object enclosingEnvironment;
 
-    public JsEnvironment(@NotNull ScriptEngine jsEngine, @NotNull DependencyResolver dependencyResolver) {
+    /**
+     * @param sourceStore the store the dependency resolver keeps the decoded script sources in; stored sources are
+     *                    used instead of reading the scripts again, together with their precomputed fingerprints
+     */
+    public JsEnvironment(
+            @NotNull ScriptEngine jsEngine,
+            @NotNull DependencyResolver dependencyResolver,
+            @NotNull ScriptCache scriptCache,
+            @NotNull ScriptCacheInvalidator scriptCacheInvalidator,
+            @Nullable ModuleRegistry moduleRegistry,
+            @Nullable ModuleCache moduleCache,
+            @Nullable SourceStore sourceStore) {
         this.jsEngine = jsEngine;
         this.dependencyResolver = dependencyResolver;
+        this.scriptCache = scriptCache;
+        this.scriptCacheInvalidator = scriptCacheInvalidator;
+        this.moduleRegistry = moduleRegistry;
+        this.moduleCache = moduleCache;
+        this.sourceStore = sourceStore;
         engineBindings = new LazyBindings();
         TimingBindingsValuesProvider.INSTANCE.addBindings(engineBindings);
     }
 
-    public void initialize() {
-        Context context = Context.enter();
-        eventLoop = EventLoopInterop.obtainEventLoop(context);
+    /**
+     * Initialise the environment, limiting the work its scripts can do
+     * @param contextFactory the factory enforcing the instruction budget
+     * @param maxTasks the maximum number of tasks the event loop can process; 0 disables the limit
+     */
+    public void initialize(@NotNull BudgetContextFactory contextFactory, int maxTasks) {
+        this.contextFactory = contextFactory;
+        Context context = contextFactory.enterExecution();
+        eventLoop = EventLoopInterop.obtainEventLoop(context, maxTasks);
+        enter(context);
+    }
+
+    /**
+     * Get the environment of the execution running on the current thread
+     * @param context the current context
+     * @return the environment, or {@code null} if no environment is initialised on this thread
+     */
+    public static @Nullable JsEnvironment getCurrent(@NotNull Context context) {
+        Object environment = context.getThreadLocal(JsEnvironment.class);
+        return environment instanceof JsEnvironment ? (JsEnvironment) environment : null;
+    }
+
+    /**
+     * @return the resolver the scripts of this environment load their dependencies with
+     */
+    public @NotNull DependencyResolver getDependencyResolver() {
+        return dependencyResolver;
+    }
+
+    /**
+     * @return the event loop of this environment, or {@code null} if the environment was not initialised
+     */
+    public @Nullable EventLoop getEventLoop() {
+        return eventLoop;
     }
 
     public void cleanup() {
@@ -71,73 +139,232 @@ public class JsEnvironment {
             throw new IllegalStateException("No current context");
         }
         EventLoopInterop.cleanupEventLoop(context);
-        Context.exit();
+        if (enclosingEnvironment != null) {
+            context.putThreadLocal(JsEnvironment.class, enclosingEnvironment);
+        } else {
+            context.removeThreadLocal(JsEnvironment.class);
+        }
+        contextFactory.exitExecution(context);
+        if (moduleRegistry != null) {
+            for (String path : loadingModules) {
+                moduleRegistry.discard(path);
+            }
+        }
     }
 
     public void runScript(
             ScriptNameAwareReader reader, Bindings globalBindings, Bindings arguments, UnaryCallback callback) {
         ScriptContext scriptContext = new SimpleScriptContext();
         CommonJsModule module = new CommonJsModule();
-        Bindings scriptBindings = buildBindings(reader, globalBindings, arguments, module);
+        Bindings scriptBindings = buildBindings(reader.getScriptName(), globalBindings, arguments, module);
         scriptContext.setBindings(scriptBindings, ScriptContext.ENGINE_SCOPE);
         runScript(reader, scriptContext, callback);
     }
 
+    /**
+     * Evaluate a script right away, instead of scheduling it on the event loop. The tasks the script schedules still
+     * run before this method returns.
+     * @param reader the script's reader
+     * @param globalBindings the global bindings
+     * @param arguments the arguments of the script
+     * @return the script's value if it is available synchronously, otherwise the {@link AsyncContainer} or promise
+     * that will provide it
+     */
+    public Object evaluate(ScriptNameAwareReader reader, Bindings globalBindings, Bindings arguments) {
+        ScriptContext scriptContext = new SimpleScriptContext();
+        CommonJsModule module = new CommonJsModule();
+        Bindings scriptBindings = buildBindings(reader.getScriptName(), globalBindings, arguments, module);
+        scriptContext.setBindings(scriptBindings, ScriptContext.ENGINE_SCOPE);
+        Object[] result = new Object[1];
+        eventLoop.execute(() -> result[0] = eval(reader, null, scriptContext));
+        if (result[0] instanceof AsyncContainer && ((AsyncContainer) result[0]).isCompleted()) {
+            return ((AsyncContainer) result[0]).getResult();
+        }
+        return result[0];
+    }
+
     public AsyncContainer runScript(ScriptNameAwareReader reader, Bindings globalBindings, Bindings arguments) {
         AsyncContainer asyncContainer = new AsyncContainer();
         runScript(reader, globalBindings, arguments, asyncContainer.createCompletionCallback());
         return asyncContainer;
     }
 
+    /**
+     * Run a script loaded through the {@code use} function. If a module registry is available, the script is only
+     * executed the first time it is used; subsequent uses receive the exports of that execution. The exports of
+     * cacheable modules are additionally shared across requests.
+     * @param caller the path of the script calling {@code use}, if known
+     * @param reader the reader of the dependency
+     * @param globalBindings the bindings of the dependency
+     * @param callback the callback receiving the dependency's exports
+     */
+    public void runModule(
+            @Nullable String caller,
+            @NotNull ScriptNameAwareReader reader,
+            @NotNull Bindings globalBindings,
+            @NotNull UnaryCallback callback) {
+        String path = reader.getScriptName();
+        AsyncContainer exports = moduleRegistry == null ? null : moduleRegistry.get(path);
+        if (exports == null) {
+            if (moduleRegistry != null) {
+                exports = moduleRegistry.register(path);
+                loadingModules.add(path);
+                if (caller != null) {
+                    moduleRegistry.await(caller, path);
+                }
+            } else {
+                exports = new AsyncContainer();
+            }
+            loadModule(reader, globalBindings, exports);
+        } else {
+            if (caller != null) {
+                moduleRegistry.await(caller, path);
+            }
+            closeQuietly(reader);
+        }
+        exports.addListener(callback);
+    }
+
+    /**
+     * Record that a script depends on another one, so that changes to the dependency also invalidate the dependent
+     * script
+     * @param dependent the path of the script calling {@code use}
+     * @param dependency the path of the resolved dependency
+     */
+    public void recordDependency(String dependent, String dependency) {
+        scriptCacheInvalidator.recordDependency(dependent, dependency);
+    }
+
     private Bindings buildBindings(
-            ScriptNameAwareReader reader, Bindings globalBindings, Bindings arguments, CommonJsModule commonJsModule) {
-        Bindings bindings = new LazyBindings();
-        bindings.putAll(globalBindings);
+            String scriptName, Bindings globalBindings, Bindings arguments, CommonJsModule commonJsModule) {
+        Bindings bindings = new LayeredBindings(globalBindings);
         bindings.putAll(engineBindings);
-        bindings.put(ScriptEngine.FILENAME, reader.getScriptName());
+        bindings.put(ScriptEngine.FILENAME, scriptName);
         bindings.put(Variables.MODULE, commonJsModule);
         bindings.put(Variables.EXPORTS, commonJsModule.getExports());
-        bindings.put(Variables.CONSOLE, new Console(LoggerFactory.getLogger(reader.getScriptName())));
+        bindings.put(Variables.CONSOLE, new Console(LoggerFactory.getLogger(scriptName)));
         UseFunction useFunction = new UseFunction(this, dependencyResolver, bindings, arguments);
         bindings.put(Variables.JS_USE, useFunction);
         return bindings;
     }
 
+    private void loadModule(ScriptNameAwareReader reader, Bindings globalBindings, AsyncContainer exports) {
+        if (moduleCache == null) {
+            runScript(reader, globalBindings, Utils.EMPTY_BINDINGS, exports.createCompletionCallback());
+            return;
+        }
+        String path = reader.getScriptName();
+        ScriptSource scriptSource = loadSource(reader);
+        if (moduleCache.isCacheable(path, scriptSource.getText())) {
+            String fingerprint = scriptSource.getFingerprint();
+            Object cachedExports = moduleCache.get(path, fingerprint);
+            if (cachedExports != null) {
+                exports.complete(cachedExports);
+            } else {
+                // cacheable modules are shared across requests, so they must not see the request bindings; once they
+                // are loaded, their use function loads dependencies through the environment of the calling request
+                Bindings moduleBindings = buildBindings(path, new LazyBindings());
+                runScript(scriptSource, moduleBindings, arg -> {
+                    ((UseFunction) moduleBindings.get(Variables.JS_USE)).detach();
+                    exports.complete(moduleCache.put(path, fingerprint, arg));
+                });
+            }
+        } else {
+            runScript(scriptSource, buildBindings(path, globalBindings), exports.createCompletionCallback());
+        }
+    }
+
+    private void enter(Context context) {
+        enclosingEnvironment = context.getThreadLocal(JsEnvironment.class);
+        context.putThreadLocal(JsEnvironment.class, this);
+    }
+
+    private Bindings buildBindings(String path, Bindings globalBindings) {
+        return buildBindings(path, globalBindings, Utils.EMPTY_BINDINGS, new CommonJsModule());
+    }
+
+    private void runScript(ScriptSource source, Bindings scriptBindings, UnaryCallback callback) {
+        ScriptNameAwareReader reader = new ScriptNameAwareReader(new StringReader(source.getText()), source.getPath());
+        ScriptContext scriptContext = new SimpleScriptContext();
+        scriptContext.setBindings(scriptBindings, ScriptContext.ENGINE_SCOPE);
+        eventLoop.schedule(scriptTask(reader, source, scriptContext, callback));
+    }
+
     private void runScript(ScriptNameAwareReader reader, ScriptContext scriptContext, UnaryCallback callback) {
-        eventLoop.schedule(scriptTask(reader, scriptContext, callback));
+        eventLoop.schedule(scriptTask(reader, null, scriptContext, callback));
     }
 
     private Task scriptTask(
-            final ScriptNameAwareReader reader, final ScriptContext scriptContext, final UnaryCallback callback) {
+            final ScriptNameAwareReader reader,
+            final ScriptSource source,
+            final ScriptContext scriptContext,
+            final UnaryCallback callback) {
         return new Task(() -> {
-            try {
-                Object result;
-                if (jsEngine instanceof Compilable) {
-                    result = ((Compilable) jsEngine).compile(reader).eval(scriptContext);
-                } else {
-                    result = jsEngine.eval(reader, scriptContext);
-                }
-                if (result == null) {
-                    CommonJsModule commonJsModule = (CommonJsModule) scriptContext
-                            .getBindings(ScriptContext.ENGINE_SCOPE)
-                            .get(Variables.MODULE);
-                    if (commonJsModule != null && commonJsModule.isModified()) {
-                        result = commonJsModule.getExports();
-                    }
-                }
-                if (result instanceof AsyncContainer) {
-                    ((AsyncContainer) result).addListener(callback);
-                } else {
-                    callback.invoke(result);
-                }
-            } catch (ScriptException e) {
-                throw new SightlyException(e);
-            } finally {
-                closeQuietly(reader);
+            Object result = eval(reader, source, scriptContext);
+            if (result instanceof AsyncContainer) {
+                ((AsyncContainer) result).addListener(callback);
+            } else {
+                callback.invoke(result);
             }
         });
     }
 
+    private Object eval(ScriptNameAwareReader reader, ScriptSource source, ScriptContext scriptContext) {
+        try {
+            Object result;
+            if (jsEngine instanceof Compilable) {
+                result = compile(reader, source).eval(scriptContext);
+            } else {
+                result = jsEngine.eval(reader, scriptContext);
+            }
+            if (result == null) {
+                CommonJsModule commonJsModule = (CommonJsModule)
+                        scriptContext.getBindings(ScriptContext.ENGINE_SCOPE).get(Variables.MODULE);
+                if (commonJsModule != null && commonJsModule.isModified()) {
+                    result = commonJsModule.getExports();
+                }
+            }
+            return result;
+        } catch (ScriptException e) {
+            throw new SightlyException(e);
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private CompiledScript compile(ScriptNameAwareReader reader, ScriptSource loadedSource) throws ScriptException {
+        String scriptName = reader.getScriptName();
+        ScriptSource source = loadedSource == null ? loadSource(reader) : loadedSource;
+        return scriptCache.getCompiledScript(scriptName, source.getFingerprint(), () -> ((Compilable) jsEngine)
+                .compile(new ScriptNameAwareReader(new StringReader(source.getText()), scriptName)));
+    }
+
+    private ScriptSource loadSource(ScriptNameAwareReader reader) {
+        String scriptName = reader.getScriptName();
+        try {
+            // the store hands out the source of the version it opened, never an outdated one
+            ScriptSource source = sourceStore == null ? null : sourceStore.getSource(reader);
+            if (source != null) {
+                return source;
+            }
+            return ScriptSource.of(scriptName, -1, readSource(reader));
+        } catch (IOException e) {
+            throw new SightlyException("Unable to read script " + scriptName + ".", e);
+        } finally {
+            closeQuietly(reader);
+        }
+    }
+
+    private String readSource(ScriptNameAwareReader reader) throws IOException {
+        StringBuilder source = new StringBuilder();
+        char[] buffer = new char[8192];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            source.append(buffer, 0, read);
+        }
+        return source.toString();
+    }
+
     private void closeQuietly(Closeable closeable) {
         try {
             closeable.close();
@@ -22,23 +22,51 @@ import javax.script.Bindings;
 import javax.script.ScriptEngine;
 import javax.script.ScriptEngineFactory;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.sling.api.SlingHttpServletRequest;
 import org.apache.sling.api.resource.ResourceResolver;
-import org.apache.sling.api.scripting.LazyBindings;
+import org.apache.sling.api.scripting.SlingBindings;
 import org.apache.sling.scripting.api.resource.ScriptingResourceResolverProvider;
 import org.apache.sling.scripting.core.ScriptNameAwareReader;
 import org.apache.sling.scripting.sightly.SightlyException;
-import org.apache.sling.scripting.sightly.js.impl.async.AsyncContainer;
 import org.apache.sling.scripting.sightly.js.impl.async.AsyncExtractor;
+import org.apache.sling.scripting.sightly.js.impl.cache.ModuleCache;
+import org.apache.sling.scripting.sightly.js.impl.cache.ResolutionCache;
+import org.apache.sling.scripting.sightly.js.impl.cache.ResourceTypeHierarchy;
+import org.apache.sling.scripting.sightly.js.impl.cache.ScriptCache;
+import org.apache.sling.scripting.sightly.js.impl.cache.ScriptCacheInvalidator;
+import org.apache.sling.scripting.sightly.js.impl.cache.SourceStore;
+import org.apache.sling.scripting.sightly.js.impl.cjs.ModuleRegistry;
 import org.apache.sling.scripting.sightly.js.impl.jsapi.ProxyAsyncScriptableFactory;
+import org.apache.sling.scripting.sightly.js.impl.loop.EventLoop;
+import org.apache.sling.scripting.sightly.js.impl.rhino.BudgetContextFactory;
 import org.apache.sling.scripting.sightly.js.impl.rhino.JsValueAdapter;
 import org.apache.sling.scripting.sightly.js.impl.use.DependencyResolver;
+import org.apache.sling.scripting.sightly.js.spi.JsValueConverter;
 import org.apache.sling.scripting.sightly.render.RenderContext;
 import org.apache.sling.scripting.sightly.use.ProviderOutcome;
 import org.apache.sling.scripting.sightly.use.UseProvider;
 import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceReference;
+import org.osgi.service.component.annotations.Activate;
 import org.osgi.service.component.annotations.Component;
+import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.component.annotations.Reference;
+import org.osgi.service.component.annotations.ReferenceCardinality;
+import org.osgi.service.component.annotations.ReferencePolicy;
+import org.osgi.service.component.annotations.ReferencePolicyOption;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
+import org.osgi.service.metatype.annotations.Designate;
+import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.osgi.service.metatype.annotations.Option;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Use provider for JavaScript Use-API objects.
@@ -47,8 +75,12 @@ import org.osgi.service.metatype.annotations.AttributeDefinition;
         service = UseProvider.class,
         configurationPid = "org.apache.sling.scripting.sightly.js.impl.JsUseProvider",
         property = {Constants.SERVICE_RANKING + ":Integer=80"})
+@Designate(ocd = JsUseProvider.Configuration.class)
 public class JsUseProvider implements UseProvider {
 
+    @ObjectClassDefinition(
+            name = "Apache Sling Scripting HTL JavaScript Use Provider Configuration",
+            description = "HTL JavaScript Use Provider configuration options")
     @interface Configuration {
 
         @AttributeDefinition(
@@ -57,10 +89,99 @@ public class JsUseProvider implements UseProvider {
                         "The Service Ranking value acts as the priority with which this Use Provider is queried to return an "
                                 + "Use-object. A higher value represents a higher priority.")
         int service_ranking() default 80;
+
+        @AttributeDefinition(
+                name = "Script Cache Size",
+                description =
+                        "The maximum number of compiled Use-API scripts kept in memory. A value of 0 disables the "
+                                + "cache, so that scripts are compiled for every use.")
+        int script_cache_size() default 1000;
+
+        @AttributeDefinition(
+                name = "Script Cache Eviction Policy",
+                description = "Defines which compiled script is evicted when the script cache is full.",
+                options = {
+                    @Option(label = "Least recently used", value = "LRU"),
+                    @Option(label = "First in, first out", value = "FIFO")
+                })
+        String script_cache_eviction_policy() default "LRU";
+
+        @AttributeDefinition(
+                name = "Script Engine Pool Size",
+                description =
+                        "The maximum number of idle JavaScript engines kept for reuse by subsequent Use-API calls. "
+                                + "A value of 0 creates a new engine for every call.")
+        int script_engine_pool_size() default 32;
+
+        @AttributeDefinition(
+                name = "Dependency Resolution Cache Size",
+                description =
+                        "The maximum number of resolved (or not found) script dependencies kept in memory. The "
+                                + "cache is cleared whenever scripts under /apps or /libs change. A value of 0 disables the cache.")
+        int resolution_cache_size() default 10000;
+
+        @AttributeDefinition(
+                name = "Cacheable Modules",
+                description =
+                        "Regular expressions matching the paths of the modules whose exports are cached and shared "
+                                + "across requests. Such modules are executed without the request bindings. Modules can "
+                                + "also opt in by starting with the 'use cacheable'; directive.")
+        String[] cacheable_modules() default {};
+
+        @AttributeDefinition(
+                name = "Instruction Budget",
+                description =
+                        "The maximum number of JavaScript instructions a single Use-API call can execute before it fails. "
+                                + "A value of 0 disables the budget.")
+        long instruction_budget() default 100000000L;
+
+        @AttributeDefinition(
+                name = "Task Budget",
+                description =
+                        "The maximum number of event loop tasks (callbacks, promise reactions) a single Use-API call can "
+                                + "process before it fails. A value of 0 disables the budget.")
+        int task_budget() default 100000;
+
+        @AttributeDefinition(
+                name = "Script Source Store Size",
+                description =
+                        "The maximum number of decoded script sources kept in memory, so that unchanged scripts are "
+                                + "not read from the repository again. A value of 0 disables the store.")
+        int script_source_store_size() default 1000;
+
+        @AttributeDefinition(
+                name = "Compress Script Sources",
+                description =
+                        "Store the script sources deflated, outside of the heap, trading some CPU time on every read "
+                                + "for a smaller memory footprint.")
+        boolean script_source_compression() default false;
+
+        @AttributeDefinition(
+                name = "Value Adaptation",
+                description = "Defines how the arrays, lists and maps returned by Use-API scripts are converted. Lazy "
+                        + "views turn JS arrays into lists instead of the Object[] arrays returned by deep copies.",
+                options = {
+                    @Option(label = "Lazy views, converting elements on access", value = "LAZY"),
+                    @Option(label = "Deep copies, converting all elements upfront", value = "EAGER")
+                })
+        String value_adaptation() default "EAGER";
+
+        @AttributeDefinition(
+                name = "Value Adaptation Depth",
+                description =
+                        "The depth up to which nested values returned by Use-API scripts are converted eagerly. Deeper "
+                                + "values are converted lazily, when they are accessed.")
+        int value_adaptation_max_depth() default JsValueAdapter.DEFAULT_MAX_DEPTH;
+
+        @AttributeDefinition(
+                name = "Memoize Use-Object Properties",
+                description = "Keep the converted property values of the objects returned by Use-API scripts, so that "
+                        + "function-valued properties are called once per object instead of on every access.")
+        boolean memoize_properties() default true;
     }
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(JsUseProvider.class);
     private static final String JS_ENGINE_NAME = "rhino";
-    private static final JsValueAdapter jsValueAdapter = new JsValueAdapter(new AsyncExtractor());
 
     @Reference(target = "(names=Rhino)")
     private ScriptEngineFactory scriptEngineFactory;
@@ -71,14 +192,74 @@ public class JsUseProvider implements UseProvider {
     @Reference
     private ScriptingResourceResolverProvider scriptingResourceResolverProvider;
 
+    @Reference
+    private ScriptCacheInvalidator scriptCacheInvalidator;
+
+    private final Map<ServiceReference<JsValueConverter>, JsValueConverter> converters =
+            new ConcurrentSkipListMap<>(Collections.reverseOrder());
+
+    private ScriptCache scriptCache;
+    private ResolutionCache resolutionCache;
+    private ResourceTypeHierarchy resourceTypeHierarchy;
+    private ModuleCache moduleCache;
+    private SourceStore sourceStore;
+    private volatile JsValueAdapter jsValueAdapter;
+    private BudgetContextFactory contextFactory;
+    private int taskBudget;
+    private final AtomicLong exceededBudgets = new AtomicLong();
+    private final AtomicLong eventLoopTasks = new AtomicLong();
+    private final AtomicLong eventLoopMicrotasks = new AtomicLong();
+    private final AtomicInteger eventLoopHighWaterMark = new AtomicInteger();
+    private ScriptEnginePool scriptEnginePool;
+
+    @Activate
+    protected void activate(Configuration configuration) {
+        scriptEnginePool = new ScriptEnginePool(scriptEngineFactory, configuration.script_engine_pool_size());
+        scriptCache = new ScriptCache(
+                configuration.script_cache_size(),
+                getEvictionPolicy(configuration.script_cache_eviction_policy()),
+                this::onScriptEvicted);
+        scriptCacheInvalidator.register(scriptCache);
+        resolutionCache = new ResolutionCache(configuration.resolution_cache_size());
+        scriptCacheInvalidator.register(resolutionCache);
+        resourceTypeHierarchy = new ResourceTypeHierarchy();
+        scriptCacheInvalidator.register(resourceTypeHierarchy);
+        moduleCache = new ModuleCache(configuration.cacheable_modules());
+        scriptCacheInvalidator.register(moduleCache);
+        sourceStore =
+                new SourceStore(configuration.script_source_store_size(), configuration.script_source_compression());
+        scriptCacheInvalidator.register(sourceStore);
+        contextFactory = new BudgetContextFactory(configuration.instruction_budget());
+        jsValueAdapter = new JsValueAdapter(
+                new AsyncExtractor(),
+                getValueAdaptationMode(configuration.value_adaptation()),
+                configuration.value_adaptation_max_depth(),
+                configuration.memoize_properties(),
+                contextFactory);
+        updateConverters();
+        taskBudget = configuration.task_budget();
+    }
+
+    @Deactivate
+    protected void deactivate() {
+        scriptCacheInvalidator.unregister(scriptCache);
+        scriptCacheInvalidator.unregister(resolutionCache);
+        scriptCacheInvalidator.unregister(resourceTypeHierarchy);
+        scriptCacheInvalidator.unregister(moduleCache);
+        scriptCacheInvalidator.unregister(sourceStore);
+        scriptCache.clear();
+        moduleCache.clear();
+        sourceStore.clear();
+        scriptEnginePool.clear();
+    }
+
     @Override
     public ProviderOutcome provide(String identifier, RenderContext renderContext, Bindings arguments) {
-        Bindings globalBindings = new LazyBindings();
-        globalBindings.putAll(renderContext.getBindings());
         if (!Utils.isJsScript(identifier)) {
             return ProviderOutcome.failure();
         }
-        ScriptEngine jsEngine = scriptEngineFactory.getScriptEngine();
+        Bindings globalBindings = new LayeredBindings(renderContext.getBindings());
+        ScriptEngine jsEngine = scriptEnginePool.borrow();
         if (jsEngine == null) {
             return ProviderOutcome.failure(
                     new SightlyException("Failed to obtain a " + JS_ENGINE_NAME + " JavaScript engine."));
@@ -87,22 +268,145 @@ public class JsUseProvider implements UseProvider {
         try {
             ResourceResolver slingScriptingResolver =
                     scriptingResourceResolverProvider.getRequestScopedResourceResolver();
-            DependencyResolver dependencyResolver = new DependencyResolver(slingScriptingResolver);
-            environment = new JsEnvironment(jsEngine, dependencyResolver);
-            environment.initialize();
+            DependencyResolver dependencyResolver =
+                    new DependencyResolver(slingScriptingResolver, resolutionCache, resourceTypeHierarchy, sourceStore);
+            Object request = globalBindings.get(SlingBindings.REQUEST);
+            ModuleRegistry moduleRegistry = request instanceof SlingHttpServletRequest
+                    ? ModuleRegistry.forRequest((SlingHttpServletRequest) request)
+                    : null;
+            environment = new JsEnvironment(
+                    jsEngine,
+                    dependencyResolver,
+                    scriptCache,
+                    scriptCacheInvalidator,
+                    moduleRegistry,
+                    moduleCache,
+                    sourceStore);
+            environment.initialize(contextFactory, taskBudget);
             ScriptNameAwareReader reader = dependencyResolver.resolve(globalBindings, identifier);
             if (reader != null) {
                 proxyAsyncScriptableFactory.registerProxies(slingScriptingResolver, environment, globalBindings);
-                AsyncContainer asyncContainer = environment.runScript(reader, globalBindings, arguments);
-                return ProviderOutcome.success(jsValueAdapter.adapt(asyncContainer));
+                Object result = environment.evaluate(reader, globalBindings, arguments);
+                return ProviderOutcome.success(jsValueAdapter.adapt(result));
             }
             return ProviderOutcome.failure();
         } catch (Exception e) {
+            BudgetExceededException budgetExceededException = getBudgetExceededException(e);
+            if (budgetExceededException != null) {
+                LOGGER.warn(
+                        "Use-API script {} was stopped: {} Budgets exceeded since activation: {}.",
+                        identifier,
+                        budgetExceededException.getMessage(),
+                        exceededBudgets.incrementAndGet());
+                return ProviderOutcome.failure(budgetExceededException);
+            }
             return ProviderOutcome.failure(e);
         } finally {
             if (environment != null) {
+                recordEventLoop(environment.getEventLoop());
                 environment.cleanup();
             }
+            scriptEnginePool.release(jsEngine);
+        }
+    }
+
+    @Reference(
+            service = JsValueConverter.class,
+            cardinality = ReferenceCardinality.MULTIPLE,
+            policy = ReferencePolicy.DYNAMIC,
+            policyOption = ReferencePolicyOption.GREEDY)
+    protected void bindJsValueConverter(JsValueConverter converter, ServiceReference<JsValueConverter> reference) {
+        converters.put(reference, converter);
+        updateConverters();
+    }
+
+    protected void unbindJsValueConverter(JsValueConverter converter, ServiceReference<JsValueConverter> reference) {
+        converters.remove(reference);
+        updateConverters();
+    }
+
+    private void updateConverters() {
+        JsValueAdapter adapter = jsValueAdapter;
+        if (adapter != null) {
+            // highest service ranking first
+            adapter.setConverters(new ArrayList<>(converters.values()));
+        }
+    }
+
+    /**
+     * @return the number of Use-API calls stopped because they exceeded a budget since the component was activated
+     */
+    public long getExceededBudgets() {
+        return exceededBudgets.get();
+    }
+
+    /**
+     * @return the number of event loop tasks run by Use-API calls since the component was activated
+     */
+    public long getEventLoopTaskCount() {
+        return eventLoopTasks.get();
+    }
+
+    /**
+     * @return the number of event loop microtasks (promise reactions) run by Use-API calls since the component was
+     * activated
+     */
+    public long getEventLoopMicrotaskCount() {
+        return eventLoopMicrotasks.get();
+    }
+
+    /**
+     * @return the highest number of tasks waiting in the event loop of a single Use-API call since the component was
+     * activated
+     */
+    public int getEventLoopHighWaterMark() {
+        return eventLoopHighWaterMark.get();
+    }
+
+    private void recordEventLoop(EventLoop eventLoop) {
+        if (eventLoop != null) {
+            eventLoopTasks.addAndGet(eventLoop.getTaskCount());
+            eventLoopMicrotasks.addAndGet(eventLoop.getMicrotaskCount());
+            eventLoopHighWaterMark.accumulateAndGet(eventLoop.getHighWaterMark(), Math::max);
+        }
+    }
+
+    private BudgetExceededException getBudgetExceededException(Throwable throwable) {
+        Throwable cause = throwable;
+        while (cause != null) {
+            if (cause instanceof BudgetExceededException) {
+                return (BudgetExceededException) cause;
+            }
+            cause = cause.getCause() == cause ? null : cause.getCause();
+        }
+        return null;
+    }
+
+    private JsValueAdapter.Mode getValueAdaptationMode(String mode) {
+        try {
+            return JsValueAdapter.Mode.valueOf(mode);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            LOGGER.warn("Invalid value adaptation mode {}; falling back to {}.", mode, JsValueAdapter.Mode.EAGER);
+            return JsValueAdapter.Mode.EAGER;
+        }
+    }
+
+    private void onScriptEvicted(String path) {
+        // the cached exports of a module are only invalidated through its recorded dependencies, so they cannot outlive
+        // them
+        scriptCacheInvalidator.forgetDependencies(path);
+        moduleCache.invalidate(Collections.singleton(path));
+    }
+
+    private ScriptCache.EvictionPolicy getEvictionPolicy(String evictionPolicy) {
+        try {
+            return ScriptCache.EvictionPolicy.valueOf(evictionPolicy);
+        } catch (IllegalArgumentException | NullPointerException e) {
+            LOGGER.warn(
+                    "Invalid script cache eviction policy {}; falling back to {}.",
+                    evictionPolicy,
+                    ScriptCache.EvictionPolicy.LRU);
+            return ScriptCache.EvictionPolicy.LRU;
         }
     }
 }
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl;
+
+import javax.script.Bindings;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.apache.sling.api.scripting.LazyBindings;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Copy-on-write {@link Bindings} layered on top of parent bindings. The layer only stores the bindings put or removed
+ * through it and delegates all the other lookups to its parent, which is never modified. Values provided by
+ * {@link LazyBindings.Supplier}s, either in the parent or in this layer, are only computed when they are read.
+ */
+public class LayeredBindings extends AbstractMap<String, Object> implements Bindings {
+
+    private final Map<String, Object> parent;
+    private final LazyBindings overrides = new LazyBindings();
+    private final Set<String> removed = new HashSet<>();
+
+    public LayeredBindings(@NotNull Map<String, Object> parent) {
+        this.parent = parent;
+    }
+
+    /**
+     * Put a binding in this layer
+     * @param name the name of the binding
+     * @param value the value of the binding
+     * @return the previous value of the binding in this layer; the parent's value is not evaluated
+     */
+    @Override
+    public Object put(String name, Object value) {
+        removed.remove(name);
+        return overrides.put(name, value);
+    }
+
+    @Override
+    public void putAll(Map<? extends String, ?> toMerge) {
+        for (String name : toMerge.keySet()) {
+            removed.remove(name);
+        }
+        overrides.putAll(toMerge);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return overrides.containsKey(key) || (!removed.contains(key) && parent.containsKey(key));
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (overrides.containsKey(key)) {
+            return overrides.get(key);
+        }
+        if (removed.contains(key)) {
+            return null;
+        }
+        return parent.get(key);
+    }
+
+    /**
+     * Remove a binding from this layer, hiding the parent's binding with the same name
+     * @param key the name of the binding
+     * @return the previous value of the binding in this layer; the parent's value is not evaluated
+     */
+    @Override
+    public Object remove(Object key) {
+        Object previous = overrides.remove(key);
+        if (key instanceof String && parent.containsKey(key)) {
+            removed.add((String) key);
+        }
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        overrides.clear();
+        removed.addAll(parent.keySet());
+    }
+
+    @Override
+    public @NotNull Set<String> keySet() {
+        Set<String> keys = new LinkedHashSet<>(parent.keySet());
+        keys.removeAll(removed);
+        keys.addAll(overrides.keySet());
+        return keys;
+    }
+
+    @Override
+    public int size() {
+        return keySet().size();
+    }
+
+    @Override
+    public @NotNull Set<Entry<String, Object>> entrySet() {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public @NotNull Iterator<Entry<String, Object>> iterator() {
+                Iterator<String> keys = keySet().iterator();
+                return new Iterator<Entry<String, Object>>() {
+
+                    private String current;
+
+                    @Override
+                    public boolean hasNext() {
+                        return keys.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Object> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        current = keys.next();
+                        return new LayeredEntry(current);
+                    }
+
+                    @Override
+                    public void remove() {
+                        if (current == null) {
+                            throw new IllegalStateException();
+                        }
+                        LayeredBindings.this.remove(current);
+                        current = null;
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return LayeredBindings.this.size();
+            }
+        };
+    }
+
+    /**
+     * Entry whose value is only read from the bindings when requested.
+     */
+    private final class LayeredEntry implements Entry<String, Object> {
+
+        private final String key;
+
+        private LayeredEntry(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return get(key);
+        }
+
+        @Override
+        public Object setValue(Object value) {
+            return put(key, value);
+        }
+    }
+}
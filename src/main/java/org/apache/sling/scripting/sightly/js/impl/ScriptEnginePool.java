@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Pool of idle script engines. Engines are only used by one thread at a time: an engine is taken out of the pool for
+ * the duration of a Use-API call and returned afterwards, so that the engine set-up cost is not paid for every call.
+ */
+public class ScriptEnginePool {
+
+    private final ScriptEngineFactory scriptEngineFactory;
+    private final BlockingQueue<ScriptEngine> idleEngines;
+
+    /**
+     * @param scriptEngineFactory the factory creating the engines
+     * @param size the maximum number of idle engines kept by the pool; a value of 0 disables pooling
+     */
+    public ScriptEnginePool(@NotNull ScriptEngineFactory scriptEngineFactory, int size) {
+        this.scriptEngineFactory = scriptEngineFactory;
+        this.idleEngines = size > 0 ? new ArrayBlockingQueue<>(size) : null;
+    }
+
+    /**
+     * Take an idle engine from the pool, or create a new one if the pool is empty
+     * @return a script engine, or {@code null} if the factory cannot provide one
+     */
+    public @Nullable ScriptEngine borrow() {
+        ScriptEngine scriptEngine = idleEngines == null ? null : idleEngines.poll();
+        if (scriptEngine == null) {
+            scriptEngine = scriptEngineFactory.getScriptEngine();
+        }
+        return scriptEngine;
+    }
+
+    /**
+     * Return an engine obtained through {@link #borrow()}; the engine is discarded if the pool is full
+     * @param scriptEngine the engine
+     */
+    public void release(@NotNull ScriptEngine scriptEngine) {
+        if (idleEngines != null) {
+            idleEngines.offer(scriptEngine);
+        }
+    }
+
+    public void clear() {
+        if (idleEngines != null) {
+            idleEngines.clear();
+        }
+    }
+}
@@ -28,6 +28,9 @@ public final class Variables {
     public static final String JS_USE = "use";
     public static final String SET_TIMEOUT = "setTimeout";
     public static final String SET_IMMEDIATE = "setImmediate";
+    public static final String CLEAR_TIMEOUT = "clearTimeout";
+    public static final String CLEAR_IMMEDIATE = "clearImmediate";
+    public static final String QUEUE_MICROTASK = "queueMicrotask";
 
     public static final String MODULE = "module";
     public static final String EXPORTS = "exports";
@@ -52,7 +52,7 @@ public class AsyncExtractor {
             final AsyncContainer errorContainer = new AsyncContainer();
             final Function errorHandler = createErrorHandler(errorContainer);
             final Function successHandler = convertCallback(callback);
-            EventLoopInterop.schedule(context, new Runnable() {
+            EventLoopInterop.queueMicrotask(context, new Runnable() {
                 @Override
                 public void run() {
                     ScriptableObject.callMethod(promise, THEN_METHOD, new Object[] {successHandler, errorHandler});
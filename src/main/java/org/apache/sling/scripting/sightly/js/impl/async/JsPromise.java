@@ -0,0 +1,263 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.async;
+
+import org.apache.sling.scripting.sightly.js.impl.BudgetExceededException;
+import org.apache.sling.scripting.sightly.js.impl.loop.EventLoopInterop;
+import org.apache.sling.scripting.sightly.js.impl.rhino.JsUtils;
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.JavaScriptException;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.RhinoException;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Java implementation of a JS promise (thenable). The outcome is kept in an {@link AsyncContainer}; the reactions
+ * registered through {@code then} and {@code catch} run as microtasks of the current event loop, following the
+ * Promises/A+ resolution procedure.
+ */
+public final class JsPromise extends ScriptableObject {
+
+    private static final String THEN = AsyncExtractor.THEN_METHOD;
+    private static final String CATCH = "catch";
+    private static final Scriptable PROTOTYPE = createPrototype();
+
+    private final AsyncContainer outcome = new AsyncContainer();
+    private boolean rejected;
+    private boolean resolving;
+
+    public JsPromise() {
+        setPrototype(PROTOTYPE);
+    }
+
+    /**
+     * @param context the current context
+     * @param value the value, or a thenable to adopt
+     * @return a promise resolved with the value
+     */
+    public static JsPromise resolved(Context context, Object value) {
+        if (value instanceof JsPromise) {
+            return (JsPromise) value;
+        }
+        JsPromise promise = new JsPromise();
+        promise.resolve(context, value);
+        return promise;
+    }
+
+    /**
+     * @param reason the rejection reason
+     * @return a promise rejected with the reason
+     */
+    public static JsPromise rejected(Object reason) {
+        JsPromise promise = new JsPromise();
+        promise.reject(reason);
+        return promise;
+    }
+
+    @Override
+    public String getClassName() {
+        return "Promise";
+    }
+
+    /**
+     * Resolve this promise, unless it was already resolved or rejected
+     * @param context the current context
+     * @param value the value, or a thenable to adopt
+     */
+    public void resolve(Context context, Object value) {
+        if (!resolving) {
+            resolving = true;
+            adopt(context, value);
+        }
+    }
+
+    /**
+     * Reject this promise, unless it was already resolved or rejected
+     * @param reason the rejection reason
+     */
+    public void reject(Object reason) {
+        if (!resolving) {
+            resolving = true;
+            settle(true, reason);
+        }
+    }
+
+    /**
+     * @return {@code true} if this promise was fulfilled or rejected
+     */
+    public boolean isSettled() {
+        return outcome.isCompleted();
+    }
+
+    /**
+     * @return {@code true} if this promise was rejected
+     */
+    public boolean isRejected() {
+        return rejected;
+    }
+
+    /**
+     * Register reactions to the outcome of this promise
+     * @param context the current context
+     * @param scope the scope the reactions are called in
+     * @param onFulfilled called with the value, if a function
+     * @param onRejected called with the reason, if a function
+     * @return the promise resolved with the result of the reaction
+     */
+    public JsPromise then(Context context, Scriptable scope, Object onFulfilled, Object onRejected) {
+        JsPromise derived = new JsPromise();
+        outcome.addListener(value -> EventLoopInterop.queueMicrotask(
+                context, () -> react(context, scope, derived, value, rejected ? onRejected : onFulfilled)));
+        return derived;
+    }
+
+    private void react(Context context, Scriptable scope, JsPromise derived, Object value, Object handler) {
+        if (!(handler instanceof Function)) {
+            if (rejected) {
+                derived.reject(value);
+            } else {
+                derived.resolve(context, value);
+            }
+            return;
+        }
+        try {
+            derived.resolve(context, JsUtils.callFn((Function) handler, context, scope, null, new Object[] {value}));
+        } catch (RuntimeException e) {
+            derived.reject(reason(e));
+        }
+    }
+
+    private void adopt(Context context, Object value) {
+        if (value == this) {
+            settle(true, "A promise cannot be resolved with itself.");
+            return;
+        }
+        if (value instanceof JsPromise) {
+            JsPromise other = (JsPromise) value;
+            other.outcome.addListener(result -> settle(other.rejected, result));
+            return;
+        }
+        if (value instanceof Scriptable) {
+            Object then;
+            try {
+                then = ScriptableObject.getProperty((Scriptable) value, THEN);
+            } catch (RuntimeException e) {
+                settle(true, reason(e));
+                return;
+            }
+            if (then instanceof Function) {
+                EventLoopInterop.queueMicrotask(
+                        context, () -> adoptThenable(context, (Scriptable) value, (Function) then));
+                return;
+            }
+        }
+        settle(false, value);
+    }
+
+    private void adoptThenable(Context context, Scriptable thenable, Function then) {
+        boolean[] called = new boolean[1];
+        BaseFunction resolveFunction = new BaseFunction() {
+            @Override
+            public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+                if (!called[0]) {
+                    called[0] = true;
+                    adopt(cx, args.length == 0 ? Context.getUndefinedValue() : args[0]);
+                }
+                return Context.getUndefinedValue();
+            }
+        };
+        BaseFunction rejectFunction = new BaseFunction() {
+            @Override
+            public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+                if (!called[0]) {
+                    called[0] = true;
+                    settle(true, args.length == 0 ? Context.getUndefinedValue() : args[0]);
+                }
+                return Context.getUndefinedValue();
+            }
+        };
+        try {
+            JsUtils.callFn(then, context, thenable, thenable, new Object[] {resolveFunction, rejectFunction});
+        } catch (RuntimeException e) {
+            Object reason = reason(e);
+            if (!called[0]) {
+                called[0] = true;
+                settle(true, reason);
+            }
+        }
+    }
+
+    /**
+     * Get the reason to reject a promise with, for an exception thrown by a script or host function. An exceeded
+     * budget is not a script error and is rethrown, so that it stops the execution.
+     * @param e the exception
+     * @return the rejection reason
+     */
+    private static Object reason(RuntimeException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof BudgetExceededException) {
+                throw e;
+            }
+        }
+        if (e instanceof JavaScriptException) {
+            return ((JavaScriptException) e).getValue();
+        }
+        if (e instanceof RhinoException) {
+            return ((RhinoException) e).details();
+        }
+        return e.toString();
+    }
+
+    private void settle(boolean rejected, Object value) {
+        this.rejected = rejected;
+        outcome.complete(value);
+    }
+
+    private static Scriptable createPrototype() {
+        NativeObject prototype = new NativeObject();
+        prototype.put(THEN, prototype, new BaseFunction() {
+            @Override
+            public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+                return promise(thisObj).then(cx, scope, argument(args, 0), argument(args, 1));
+            }
+        });
+        prototype.put(CATCH, prototype, new BaseFunction() {
+            @Override
+            public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+                return promise(thisObj).then(cx, scope, null, argument(args, 0));
+            }
+        });
+        prototype.sealObject();
+        return prototype;
+    }
+
+    private static JsPromise promise(Scriptable thisObj) {
+        if (!(thisObj instanceof JsPromise)) {
+            throw new IllegalArgumentException("Not a promise: " + thisObj);
+        }
+        return (JsPromise) thisObj;
+    }
+
+    private static Object argument(Object[] args, int index) {
+        return args.length > index ? args[index] : null;
+    }
+}
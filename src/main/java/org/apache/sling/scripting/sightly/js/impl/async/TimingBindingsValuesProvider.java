@@ -34,7 +34,10 @@ public final class TimingBindingsValuesProvider implements BindingsValuesProvide
 
     @Override
     public void addBindings(Bindings bindings) {
-        bindings.put(Variables.SET_TIMEOUT, TimingFunction.INSTANCE);
-        bindings.put(Variables.SET_IMMEDIATE, TimingFunction.INSTANCE);
+        bindings.put(Variables.SET_TIMEOUT, TimingFunction.SET_TIMEOUT);
+        bindings.put(Variables.SET_IMMEDIATE, TimingFunction.SET_IMMEDIATE);
+        bindings.put(Variables.CLEAR_TIMEOUT, ClearTimerFunction.INSTANCE);
+        bindings.put(Variables.CLEAR_IMMEDIATE, ClearTimerFunction.INSTANCE);
+        bindings.put(Variables.QUEUE_MICROTASK, TimingFunction.QUEUE_MICROTASK);
     }
 }
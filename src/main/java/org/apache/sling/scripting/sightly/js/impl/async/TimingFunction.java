@@ -18,6 +18,8 @@
  */
 package org.apache.sling.scripting.sightly.js.impl.async;
 
+import java.util.Arrays;
+
 import org.apache.sling.scripting.sightly.js.impl.loop.EventLoopInterop;
 import org.apache.sling.scripting.sightly.js.impl.rhino.JsUtils;
 import org.mozilla.javascript.BaseFunction;
@@ -26,13 +28,37 @@ import org.mozilla.javascript.Function;
 import org.mozilla.javascript.Scriptable;
 
 /**
- * Timing function for JS scripts that use async constructs
+ * Timing function for JS scripts that use async constructs. The task returned by {@link #SET_TIMEOUT} and
+ * {@link #SET_IMMEDIATE} can be passed to {@link ClearTimerFunction} to cancel the callback before it runs.
  */
 public final class TimingFunction extends BaseFunction {
 
-    public static final TimingFunction INSTANCE = new TimingFunction();
+    /**
+     * {@code setTimeout(callback, delay, ...args)}; the delay is measured on the event loop's virtual clock
+     */
+    public static final TimingFunction SET_TIMEOUT = new TimingFunction(Kind.TIMEOUT);
+
+    /**
+     * {@code setImmediate(callback, ...args)}
+     */
+    public static final TimingFunction SET_IMMEDIATE = new TimingFunction(Kind.IMMEDIATE);
+
+    /**
+     * {@code queueMicrotask(callback)}
+     */
+    public static final TimingFunction QUEUE_MICROTASK = new TimingFunction(Kind.MICROTASK);
 
-    private TimingFunction() {}
+    private enum Kind {
+        TIMEOUT,
+        IMMEDIATE,
+        MICROTASK
+    }
+
+    private final Kind kind;
+
+    private TimingFunction(Kind kind) {
+        this.kind = kind;
+    }
 
     @Override
     public Object call(final Context cx, final Scriptable scope, Scriptable thisObj, Object[] args) {
@@ -43,11 +69,29 @@ public final class TimingFunction extends BaseFunction {
             throw new IllegalArgumentException("Timing function must receive a function as the first argument");
         }
         final Function function = (Function) args[0];
-        return EventLoopInterop.schedule(cx, new Runnable() {
+        long delay = 0;
+        int argumentsStart = 1;
+        if (kind == Kind.TIMEOUT) {
+            if (args.length > 1) {
+                double value = Context.toNumber(args[1]);
+                if (!Double.isNaN(value)) {
+                    delay = (long) value;
+                }
+            }
+            argumentsStart = 2;
+        }
+        final Object[] arguments =
+                args.length > argumentsStart ? Arrays.copyOfRange(args, argumentsStart, args.length) : new Object[0];
+        Runnable runnable = new Runnable() {
             @Override
             public void run() {
-                JsUtils.callFn(function, cx, scope, null, new Object[0]);
+                JsUtils.callFn(function, cx, scope, null, arguments);
             }
-        });
+        };
+        if (kind == Kind.MICROTASK) {
+            EventLoopInterop.queueMicrotask(cx, runnable);
+            return Context.getUndefinedValue();
+        }
+        return EventLoopInterop.schedule(cx, runnable, delay);
     }
 }
@@ -0,0 +1,35 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.cache;
+
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A cache whose entries are evicted by the {@link ScriptCacheInvalidator} when the scripts they were built from change.
+ */
+public interface InvalidatableCache {
+
+    /**
+     * Evict the entries affected by a change of the given paths
+     * @param paths the paths of the changed resources and of the scripts depending on them
+     */
+    void invalidate(@NotNull Set<String> paths);
+}
@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.cache;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.NativeFunction;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the exports of library modules across requests. A module is cacheable if its path matches one of the
+ * configured patterns or if its source starts with the {@code 'use cacheable';} directive. Such modules must not
+ * depend on request bindings: they are executed without them, once per script version, and their exports are shared by
+ * all the requests and threads using the module. The exported objects, arrays and functions, including the
+ * {@code prototype} objects of exported constructors, are deep-frozen when they are cached; state a module keeps in
+ * variables of its own closures is not, so cacheable modules must not keep mutable state there.
+ */
+public class ModuleCache implements InvalidatableCache {
+
+    /**
+     * The directive marking a module as cacheable.
+     */
+    public static final String DIRECTIVE = "use cacheable";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ModuleCache.class);
+
+    private final List<Pattern> patterns = new ArrayList<>();
+    private final Map<String, CachedExports> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param patterns the regular expressions matching the paths of the modules which are cacheable
+     */
+    public ModuleCache(@Nullable String[] patterns) {
+        if (patterns != null) {
+            for (String pattern : patterns) {
+                try {
+                    this.patterns.add(Pattern.compile(pattern));
+                } catch (PatternSyntaxException e) {
+                    LOGGER.warn("Ignoring invalid cacheable module pattern {}.", pattern, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Check whether the exports of a module can be cached
+     * @param path the path of the module's script
+     * @param source the source of the module's script
+     * @return {@code true} if the module is cacheable, {@code false} otherwise
+     */
+    public boolean isCacheable(@NotNull String path, @NotNull String source) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(path).matches()) {
+                return true;
+            }
+        }
+        return declaresCacheable(source);
+    }
+
+    /**
+     * Get the cached exports of a module
+     * @param path the path of the module's script
+     * @param fingerprint the fingerprint of the module's source
+     * @return the exports, or {@code null} if they are not cached for this version of the script
+     */
+    public @Nullable Object get(@NotNull String path, @NotNull String fingerprint) {
+        CachedExports cachedExports = entries.get(path);
+        if (cachedExports != null && cachedExports.fingerprint.equals(fingerprint)) {
+            return cachedExports.exports;
+        }
+        return null;
+    }
+
+    /**
+     * Cache the exports of a module, deep-freezing them so that they cannot be modified by the requests sharing them
+     * @param path the path of the module's script
+     * @param fingerprint the fingerprint of the module's source
+     * @param exports the exports
+     * @return the cached exports
+     */
+    public @Nullable Object put(@NotNull String path, @NotNull String fingerprint, @Nullable Object exports) {
+        if (exports == null) {
+            return null;
+        }
+        freeze(exports);
+        entries.put(path, new CachedExports(fingerprint, exports));
+        return exports;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public void invalidate(@NotNull Set<String> paths) {
+        entries.keySet().removeIf(path -> ScriptCacheInvalidator.isAffected(paths, path));
+    }
+
+    /**
+     * Freeze a value and everything it references through its own properties. Only the objects, arrays and functions
+     * created by scripts are frozen; host objects and the standard objects they inherit from are left untouched.
+     * @param value the value
+     */
+    static void freeze(@Nullable Object value) {
+        if (!isScriptValue(value)) {
+            return;
+        }
+        Context context = Context.enter();
+        try {
+            freeze(context, (ScriptableObject) value, Collections.newSetFromMap(new IdentityHashMap<>()));
+        } finally {
+            Context.exit();
+        }
+    }
+
+    private static void freeze(Context context, ScriptableObject object, Set<Object> frozen) {
+        if (!frozen.add(object)) {
+            return;
+        }
+        Object constructor = ScriptableObject.getProperty(ScriptableObject.getTopLevelScope(object), "Object");
+        if (!(constructor instanceof Scriptable)) {
+            // detached from any scope; there are no standard functions to inspect the object with
+            object.sealObject();
+            return;
+        }
+        Scriptable objectConstructor = (Scriptable) constructor;
+        List<Object> references = new ArrayList<>();
+        if (object instanceof NativeFunction) {
+            references.add(ScriptableObject.getProperty(object, "prototype"));
+        }
+        for (Object id : object.getAllIds()) {
+            Object descriptor = ScriptableObject.callMethod(
+                    context, objectConstructor, "getOwnPropertyDescriptor", new Object[] {object, id});
+            if (descriptor instanceof Scriptable) {
+                Scriptable properties = (Scriptable) descriptor;
+                references.add(ScriptableObject.getProperty(properties, "value"));
+                references.add(ScriptableObject.getProperty(properties, "get"));
+                references.add(ScriptableObject.getProperty(properties, "set"));
+            }
+        }
+        ScriptableObject.callMethod(context, objectConstructor, "freeze", new Object[] {object});
+        object.sealObject();
+        for (Object reference : references) {
+            if (isScriptValue(reference)) {
+                freeze(context, (ScriptableObject) reference, frozen);
+            }
+        }
+    }
+
+    private static boolean isScriptValue(Object value) {
+        return value instanceof NativeObject || value instanceof NativeArray || value instanceof NativeFunction;
+    }
+
+    /**
+     * Check whether the directive prologue of a script, i.e. the string literal statements preceding any other code,
+     * contains the {@link #DIRECTIVE}
+     * @param source the script's source
+     * @return {@code true} if the script declares itself cacheable, {@code false} otherwise
+     */
+    static boolean declaresCacheable(@NotNull String source) {
+        int length = source.length();
+        int i = 0;
+        while (i < length) {
+            char c = source.charAt(i);
+            if (Character.isWhitespace(c) || c == ';') {
+                i++;
+            } else if (source.startsWith("//", i)) {
+                int end = source.indexOf('\n', i);
+                i = end == -1 ? length : end + 1;
+            } else if (source.startsWith("/*", i)) {
+                int end = source.indexOf("*/", i + 2);
+                i = end == -1 ? length : end + 2;
+            } else if (c == '\'' || c == '"') {
+                int end = source.indexOf(c, i + 1);
+                if (end == -1) {
+                    return false;
+                }
+                if (DIRECTIVE.equals(source.substring(i + 1, end))) {
+                    return true;
+                }
+                i = end + 1;
+            } else {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    private static final class CachedExports {
+
+        private final String fingerprint;
+        private final Object exports;
+
+        private CachedExports(String fingerprint, Object exports) {
+            this.fingerprint = fingerprint;
+            this.exports = exports;
+        }
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Caches the outcome of dependency resolutions, keyed by the calling script, the resource type driving the request and
+ * the dependency identifier. Both successful resolutions and dependencies that could not be found are cached. Since
+ * any change in the search paths can alter the outcome of a resolution, the whole cache is cleared when scripts
+ * change.
+ */
+public class ResolutionCache implements InvalidatableCache {
+
+    /**
+     * Marks a dependency which could not be found.
+     */
+    public static final String NOT_FOUND = "<not found>";
+
+    private final int maxSize;
+    private final Map<Key, String> entries;
+
+    public ResolutionCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.entries = new LinkedHashMap<Key, String>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+                return size() > ResolutionCache.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Get the cached resolution of a dependency
+     * @param caller the path of the script requesting the dependency
+     * @param driverType the resource type of the request's resource
+     * @param dependency the dependency identifier
+     * @return the path of the resolved script, {@link #NOT_FOUND} if the dependency could not be found, or {@code
+     * null} if there is no cached resolution
+     */
+    public @Nullable String get(@Nullable String caller, @Nullable String driverType, @NotNull String dependency) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        synchronized (entries) {
+            return entries.get(new Key(caller, driverType, dependency));
+        }
+    }
+
+    /**
+     * Cache the resolution of a dependency
+     * @param caller the path of the script requesting the dependency
+     * @param driverType the resource type of the request's resource
+     * @param dependency the dependency identifier
+     * @param path the path of the resolved script, or {@code null} if the dependency could not be found
+     */
+    public void put(
+            @Nullable String caller, @Nullable String driverType, @NotNull String dependency, @Nullable String path) {
+        if (maxSize <= 0) {
+            return;
+        }
+        synchronized (entries) {
+            entries.put(new Key(caller, driverType, dependency), path == null ? NOT_FOUND : path);
+        }
+    }
+
+    @Override
+    public void invalidate(@NotNull Set<String> paths) {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    private static final class Key {
+
+        private final String caller;
+        private final String driverType;
+        private final String dependency;
+        private final int hashCode;
+
+        private Key(String caller, String driverType, String dependency) {
+            this.caller = caller;
+            this.driverType = driverType;
+            this.dependency = dependency;
+            this.hashCode = Objects.hash(caller, driverType, dependency);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Objects.equals(caller, other.caller)
+                    && Objects.equals(driverType, other.driverType)
+                    && dependency.equals(other.dependency);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+}
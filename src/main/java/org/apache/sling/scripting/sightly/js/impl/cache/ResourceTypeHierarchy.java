@@ -0,0 +1,191 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceResolver;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * In-memory index of resource type hierarchies and of the search path overlay positions of resource types. The
+ * hierarchy of a type is computed on first access by walking its {@code sling:resourceSuperType} chain; afterwards
+ * sub-type checks are answered with a single set lookup. Changes to a type only evict the hierarchies that contain it.
+ */
+public class ResourceTypeHierarchy implements InvalidatableCache {
+
+    private final Map<String, Hierarchy> hierarchies = new ConcurrentHashMap<>();
+    private final Map<List<String>, Map<String, Overlay>> overlays = new ConcurrentHashMap<>();
+
+    /**
+     * Get the paths of the resources of a resource type's hierarchy
+     * @param resolver the resolver used to resolve the super types
+     * @param type the resource type resource
+     * @return the path of the type, followed by the paths of its super types
+     */
+    public @NotNull List<String> getHierarchy(@NotNull ResourceResolver resolver, @NotNull Resource type) {
+        return getOrCompute(resolver, type).paths;
+    }
+
+    /**
+     * Check if a resource type is the same as or a sub-type of another one
+     * @param resolver the resolver used to resolve the super types
+     * @param resource the resource type resource to check
+     * @param parent the potential super type resource
+     * @return {@code true} if {@code parent} is part of the hierarchy of {@code resource}
+     */
+    public boolean isResourceType(
+            @NotNull ResourceResolver resolver, @NotNull Resource resource, @NotNull Resource parent) {
+        return parent.getPath().equals(resource.getPath())
+                || getOrCompute(resolver, resource).pathSet.contains(parent.getPath());
+    }
+
+    /**
+     * Get the overlay position of a path
+     * @param searchPath the search paths of the resolver, in order of their priority
+     * @param path the absolute path
+     * @return the overlay information, or {@code null} if the path is not located under a search path
+     */
+    public @Nullable Overlay getOverlay(@NotNull String[] searchPath, @NotNull String path) {
+        // resolvers can have different search paths, so the positions are memoised per search path
+        Map<String, Overlay> searchPathOverlays =
+                overlays.computeIfAbsent(Arrays.asList(searchPath.clone()), key -> new ConcurrentHashMap<>());
+        Overlay overlay = searchPathOverlays.get(path);
+        if (overlay == null) {
+            overlay = Overlay.NONE;
+            for (int i = 0; i < searchPath.length; i++) {
+                if (path.startsWith(searchPath[i])) {
+                    overlay = new Overlay(i, path.substring(searchPath[i].length()));
+                    break;
+                }
+            }
+            searchPathOverlays.put(path, overlay);
+        }
+        return overlay == Overlay.NONE ? null : overlay;
+    }
+
+    @Override
+    public void invalidate(@NotNull Set<String> paths) {
+        for (Map<String, Overlay> searchPathOverlays : overlays.values()) {
+            searchPathOverlays.keySet().removeIf(path -> ScriptCacheInvalidator.isAffected(paths, path));
+        }
+        hierarchies.values().removeIf(hierarchy -> hierarchy.isAffected(paths));
+    }
+
+    private Hierarchy getOrCompute(ResourceResolver resolver, Resource type) {
+        Hierarchy hierarchy = hierarchies.get(type.getPath());
+        if (hierarchy == null) {
+            hierarchy = compute(resolver, type);
+            hierarchies.put(type.getPath(), hierarchy);
+        }
+        return hierarchy;
+    }
+
+    private Hierarchy compute(ResourceResolver resolver, Resource type) {
+        List<String> paths = new ArrayList<>();
+        Set<String> superTypes = new HashSet<>();
+        paths.add(type.getPath());
+        String resourceSuperType = type.getResourceSuperType();
+        while (resourceSuperType != null && superTypes.add(resourceSuperType)) {
+            Resource intermediateType = resolver.getResource(resourceSuperType);
+            if (intermediateType == null || paths.contains(intermediateType.getPath())) {
+                break;
+            }
+            paths.add(intermediateType.getPath());
+            resourceSuperType = intermediateType.getResourceSuperType();
+        }
+        return new Hierarchy(paths, superTypes, resolver.getSearchPath());
+    }
+
+    /**
+     * The position of a path in the search path overlays.
+     */
+    public static final class Overlay {
+
+        private static final Overlay NONE = new Overlay(-1, null);
+
+        private final int index;
+        private final String relativePath;
+
+        private Overlay(int index, String relativePath) {
+            this.index = index;
+            this.relativePath = relativePath;
+        }
+
+        /**
+         * @return the index of the search path containing the path; lower indexes win
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        /**
+         * @return the path relative to its search path
+         */
+        public String getRelativePath() {
+            return relativePath;
+        }
+    }
+
+    private static final class Hierarchy {
+
+        private final List<String> paths;
+        private final Set<String> pathSet;
+        private final Set<String> superTypes;
+        private final String[] searchPath;
+
+        private Hierarchy(List<String> paths, Set<String> superTypes, String[] searchPath) {
+            this.paths = Collections.unmodifiableList(paths);
+            this.pathSet = new HashSet<>(paths);
+            this.superTypes = superTypes;
+            this.searchPath = searchPath;
+        }
+
+        private boolean isAffected(Set<String> changedPaths) {
+            for (String path : paths) {
+                if (ScriptCacheInvalidator.isAffected(changedPaths, path)) {
+                    return true;
+                }
+            }
+            // a new overlay can change how a relative super type is resolved
+            for (String changedPath : changedPaths) {
+                for (String sp : searchPath) {
+                    if (changedPath.startsWith(sp)) {
+                        String relativePath = changedPath.substring(sp.length());
+                        for (String superType : superTypes) {
+                            if (ScriptCacheInvalidator.isAffected(relativePath, superType)) {
+                                return true;
+                            }
+                        }
+                    }
+                }
+            }
+            return false;
+        }
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.cache;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Consumer;
+
+import org.apache.sling.scripting.sightly.SightlyException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Bounded cache of compiled scripts, keyed by the script's path and a fingerprint of its source. Only the most recent
+ * version of a script is kept; concurrent requests for a script that is not yet compiled share a single compilation.
+ */
+public class ScriptCache implements InvalidatableCache {
+
+    public enum EvictionPolicy {
+        /**
+         * Evicts the script that was least recently used.
+         */
+        LRU,
+
+        /**
+         * Evicts the script that was compiled first.
+         */
+        FIFO
+    }
+
+    @FunctionalInterface
+    public interface ScriptCompiler {
+
+        /**
+         * Compile the script for which the cache has no entry
+         * @return the compiled script
+         * @throws ScriptException if the script cannot be compiled
+         */
+        CompiledScript compile() throws ScriptException;
+    }
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final int maxSize;
+    private final Map<String, CacheEntry> entries;
+    private final Consumer<String> evictionListener;
+    private String evicted;
+
+    public ScriptCache(int maxSize, @NotNull EvictionPolicy evictionPolicy) {
+        this(maxSize, evictionPolicy, null);
+    }
+
+    /**
+     * @param evictionListener notified with the path of each script evicted to make room for another one; it is not
+     *                         notified for invalidated scripts
+     */
+    public ScriptCache(
+            int maxSize, @NotNull EvictionPolicy evictionPolicy, @Nullable Consumer<String> evictionListener) {
+        this.maxSize = maxSize;
+        this.evictionListener = evictionListener;
+        this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, evictionPolicy == EvictionPolicy.LRU) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CacheEntry> eldest) {
+                if (size() > ScriptCache.this.maxSize) {
+                    evicted = eldest.getKey();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Get the compiled version of a script, compiling it if the cache has no entry for the given source fingerprint.
+     * @param path the path of the script
+     * @param fingerprint the fingerprint of the script's source, as computed by {@link #fingerprint(String)}
+     * @param compiler compiles the script when there is no cached version
+     * @return the compiled script
+     * @throws ScriptException if the script cannot be compiled
+     */
+    public CompiledScript getCompiledScript(
+            @NotNull String path, @NotNull String fingerprint, @NotNull ScriptCompiler compiler)
+            throws ScriptException {
+        if (maxSize <= 0) {
+            return compiler.compile();
+        }
+        CacheEntry entry;
+        boolean compiling = false;
+        String evictedPath = null;
+        synchronized (entries) {
+            entry = entries.get(path);
+            if (entry == null || !entry.fingerprint.equals(fingerprint)) {
+                entry = new CacheEntry(fingerprint);
+                entries.put(path, entry);
+                compiling = true;
+                evictedPath = evicted;
+                evicted = null;
+            }
+        }
+        if (evictedPath != null && evictionListener != null) {
+            evictionListener.accept(evictedPath);
+        }
+        if (compiling) {
+            try {
+                entry.compiledScript.complete(compiler.compile());
+            } catch (ScriptException | RuntimeException e) {
+                synchronized (entries) {
+                    entries.remove(path, entry);
+                }
+                entry.compiledScript.completeExceptionally(e);
+                throw e;
+            }
+        }
+        return await(path, entry);
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    @Override
+    public void invalidate(@NotNull Set<String> paths) {
+        synchronized (entries) {
+            Iterator<String> iterator = entries.keySet().iterator();
+            while (iterator.hasNext()) {
+                if (ScriptCacheInvalidator.isAffected(paths, iterator.next())) {
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    /**
+     * Compute the fingerprint of a script's source
+     * @param source the script source
+     * @return the fingerprint
+     */
+    public static String fingerprint(@NotNull String source) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(source.getBytes(StandardCharsets.UTF_8));
+            char[] hex = new char[digest.length * 2];
+            for (int i = 0; i < digest.length; i++) {
+                hex[2 * i] = HEX[(digest[i] >> 4) & 0xF];
+                hex[2 * i + 1] = HEX[digest[i] & 0xF];
+            }
+            return new String(hex);
+        } catch (NoSuchAlgorithmException e) {
+            throw new SightlyException(e);
+        }
+    }
+
+    private CompiledScript await(String path, CacheEntry entry) throws ScriptException {
+        try {
+            return entry.compiledScript.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SightlyException("Interrupted while waiting for script " + path + " to be compiled.", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof ScriptException) {
+                throw (ScriptException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new SightlyException(cause);
+        }
+    }
+
+    private static final class CacheEntry {
+
+        private final String fingerprint;
+        private final CompletableFuture<CompiledScript> compiledScript = new CompletableFuture<>();
+
+        private CacheEntry(String fingerprint) {
+            this.fingerprint = fingerprint;
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.cache;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.sling.api.resource.observation.ExternalResourceChangeListener;
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.apache.sling.api.resource.observation.ResourceChangeListener;
+import org.jetbrains.annotations.NotNull;
+import org.osgi.service.component.annotations.Component;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Evicts cached script data when the scripts change. Besides the changed scripts themselves, all the scripts that
+ * depend on them, directly or transitively, through the {@code use} function are invalidated as well.
+ */
+@Component(
+        service = {ScriptCacheInvalidator.class, ResourceChangeListener.class},
+        property = {ResourceChangeListener.PATHS + "=/apps", ResourceChangeListener.PATHS + "=/libs"})
+public class ScriptCacheInvalidator implements ResourceChangeListener, ExternalResourceChangeListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ScriptCacheInvalidator.class);
+
+    private final List<InvalidatableCache> caches = new CopyOnWriteArrayList<>();
+    private final Map<String, Set<String>> dependents = new ConcurrentHashMap<>();
+
+    public void register(@NotNull InvalidatableCache cache) {
+        caches.add(cache);
+    }
+
+    public void unregister(@NotNull InvalidatableCache cache) {
+        caches.remove(cache);
+    }
+
+    /**
+     * Record that a script uses another script as a dependency
+     * @param dependent the path of the script calling {@code use}
+     * @param dependency the path of the script it depends on
+     */
+    public void recordDependency(@NotNull String dependent, @NotNull String dependency) {
+        dependents.compute(dependency, (key, scriptDependents) -> {
+            Set<String> updated = scriptDependents == null ? ConcurrentHashMap.newKeySet() : scriptDependents;
+            updated.add(dependent);
+            return updated;
+        });
+    }
+
+    /**
+     * Forget the dependencies recorded for a script, e.g. once the script is evicted from the {@link ScriptCache}. They
+     * are recorded again the next time the script is executed.
+     * @param dependent the path of the script calling {@code use}
+     */
+    public void forgetDependencies(@NotNull String dependent) {
+        removeDependents(Collections.singleton(dependent));
+    }
+
+    /**
+     * @return the number of scripts other scripts are recorded to depend on
+     */
+    int getDependencyCount() {
+        return dependents.size();
+    }
+
+    @Override
+    public void onChange(@NotNull List<ResourceChange> changes) {
+        Set<String> changedPaths = new HashSet<>();
+        for (ResourceChange change : changes) {
+            changedPaths.add(change.getPath());
+        }
+        Set<String> paths = withDependents(changedPaths);
+        LOGGER.debug("Invalidating cached scripts for {}.", paths);
+        for (InvalidatableCache cache : caches) {
+            cache.invalidate(paths);
+        }
+    }
+
+    /**
+     * Check whether a change of {@code changedPath} affects the resource at {@code path}, i.e. whether the two paths
+     * are the same or one of them is an ancestor of the other.
+     * @param changedPath the path of a changed resource
+     * @param path the path of a resource a cache entry was built from
+     * @return {@code true} if the cache entry has to be evicted, {@code false} otherwise
+     */
+    public static boolean isAffected(@NotNull String changedPath, @NotNull String path) {
+        return isSameOrAncestor(changedPath, path) || isSameOrAncestor(path, changedPath);
+    }
+
+    static boolean isAffected(@NotNull Set<String> changedPaths, @NotNull String path) {
+        for (String changedPath : changedPaths) {
+            if (isAffected(changedPath, path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Set<String> withDependents(Set<String> changedPaths) {
+        Set<String> paths = new HashSet<>(changedPaths);
+        Deque<String> queue = new ArrayDeque<>();
+        for (String dependency : dependents.keySet()) {
+            if (isAffected(changedPaths, dependency)) {
+                queue.add(dependency);
+            }
+        }
+        while (!queue.isEmpty()) {
+            Set<String> scriptDependents = dependents.get(queue.poll());
+            if (scriptDependents != null) {
+                for (String dependent : scriptDependents) {
+                    if (paths.add(dependent)) {
+                        queue.add(dependent);
+                    }
+                }
+            }
+        }
+        // the invalidated scripts record their dependencies again when they are executed
+        removeDependents(paths);
+        return paths;
+    }
+
+    private void removeDependents(Set<String> paths) {
+        for (String dependency : dependents.keySet()) {
+            // dependencies without dependents are dropped, so that the map only grows with the recorded scripts
+            dependents.computeIfPresent(dependency, (key, scriptDependents) -> {
+                scriptDependents.removeAll(paths);
+                return scriptDependents.isEmpty() ? null : scriptDependents;
+            });
+        }
+    }
+
+    private static boolean isSameOrAncestor(String ancestor, String path) {
+        return path.startsWith(ancestor)
+                && (path.length() == ancestor.length()
+                        || ancestor.endsWith("/")
+                        || path.charAt(ancestor.length()) == '/');
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.cache;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.sling.scripting.sightly.SightlyException;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The decoded source of a script. The text is either kept as a string or, to save heap space, deflated into a direct
+ * buffer and inflated again whenever it is read.
+ */
+public final class ScriptSource {
+
+    private final String path;
+    private final long version;
+    private final String text;
+    private final ByteBuffer compressed;
+    private final int length;
+    private volatile String fingerprint;
+
+    private ScriptSource(String path, long version, String text, ByteBuffer compressed, int length) {
+        this.path = path;
+        this.version = version;
+        this.text = text;
+        this.compressed = compressed;
+        this.length = length;
+    }
+
+    /**
+     * @param path the path of the script
+     * @param version the modification time of the script, or {@code -1} if unknown
+     * @param text the source of the script
+     * @return a source keeping the text as a string
+     */
+    public static @NotNull ScriptSource of(@NotNull String path, long version, @NotNull String text) {
+        return new ScriptSource(path, version, text, null, 0);
+    }
+
+    /**
+     * @param path the path of the script
+     * @param version the modification time of the script, or {@code -1} if unknown
+     * @param text the source of the script
+     * @return a source keeping the text deflated, outside of the heap
+     */
+    public static @NotNull ScriptSource compressed(@NotNull String path, long version, @NotNull String text) {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(bytes);
+            deflater.finish();
+            ByteArrayOutputStream output = new ByteArrayOutputStream(bytes.length / 2 + 16);
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int deflated = deflater.deflate(buffer);
+                output.write(buffer, 0, deflated);
+            }
+            byte[] deflatedBytes = output.toByteArray();
+            ByteBuffer compressed = ByteBuffer.allocateDirect(deflatedBytes.length);
+            compressed.put(deflatedBytes);
+            compressed.flip();
+            ScriptSource source = new ScriptSource(path, version, null, compressed.asReadOnlyBuffer(), bytes.length);
+            source.fingerprint = ScriptCache.fingerprint(text);
+            return source;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    public @NotNull String getPath() {
+        return path;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the source of the script
+     */
+    public @NotNull String getText() {
+        if (text != null) {
+            return text;
+        }
+        ByteBuffer input = compressed.duplicate();
+        byte[] deflatedBytes = new byte[input.remaining()];
+        input.get(deflatedBytes);
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(deflatedBytes);
+            byte[] bytes = new byte[length];
+            int inflated = 0;
+            while (inflated < length && !inflater.finished()) {
+                inflated += inflater.inflate(bytes, inflated, length - inflated);
+            }
+            return new String(bytes, 0, inflated, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new SightlyException("Unable to read the stored source of script " + path + ".", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * @return the {@link ScriptCache#fingerprint(String) fingerprint} of the source, computed once
+     */
+    public @NotNull String getFingerprint() {
+        String current = fingerprint;
+        if (current == null) {
+            current = ScriptCache.fingerprint(getText());
+            fingerprint = current;
+        }
+        return current;
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceMetadata;
+import org.apache.sling.scripting.core.ScriptNameAwareReader;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Keeps the decoded sources of the scripts in memory, keyed by path and checked against the modification time of the
+ * script resources, so that scripts are only read from the repository and decoded again once they change. Sources are
+ * stored the first time their reader is read; opening a script does not read it.
+ */
+public class SourceStore implements InvalidatableCache {
+
+    private final int maxSize;
+    private final boolean compress;
+    private final Map<String, ScriptSource> sources;
+    private final Map<ScriptNameAwareReader, SourceReader> openReaders =
+            Collections.synchronizedMap(new WeakHashMap<>());
+
+    /**
+     * @param maxSize the maximum number of stored sources; a value of 0 disables the store
+     * @param compress whether to store the sources deflated, outside of the heap
+     */
+    public SourceStore(int maxSize, boolean compress) {
+        this.maxSize = maxSize;
+        this.compress = compress;
+        this.sources = new LinkedHashMap<String, ScriptSource>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ScriptSource> eldest) {
+                return size() > SourceStore.this.maxSize;
+            }
+        };
+    }
+
+    /**
+     * Open a script for reading
+     * @param resource the script resource
+     * @return the script's reader, or {@code null} if the resource cannot be read
+     */
+    public @Nullable ScriptNameAwareReader open(@NotNull Resource resource) {
+        String path = resource.getPath();
+        long version = getVersion(resource);
+        ScriptSource source = get(path);
+        SourceReader sourceReader;
+        if (source != null && (version == -1 || source.getVersion() == version)) {
+            sourceReader = new SourceReader(source);
+        } else {
+            InputStream inputStream = resource.adaptTo(InputStream.class);
+            if (inputStream == null) {
+                return null;
+            }
+            Reader reader = new InputStreamReader(inputStream, StandardCharsets.UTF_8);
+            if (maxSize <= 0) {
+                return new ScriptNameAwareReader(reader, path);
+            }
+            sourceReader = new SourceReader(path, version, reader);
+        }
+        ScriptNameAwareReader scriptReader = new ScriptNameAwareReader(sourceReader, path);
+        openReaders.put(scriptReader, sourceReader);
+        return scriptReader;
+    }
+
+    /**
+     * Get the source behind a reader obtained through {@link #open(Resource)}. The source is the current one of the
+     * script the reader was opened for, read and stored first if needed.
+     * @param reader the reader
+     * @return the source, or {@code null} if the reader was not opened by this store
+     * @throws IOException if the script cannot be read
+     */
+    public @Nullable ScriptSource getSource(@NotNull ScriptNameAwareReader reader) throws IOException {
+        SourceReader sourceReader = openReaders.remove(reader);
+        return sourceReader == null ? null : sourceReader.getSource();
+    }
+
+    /**
+     * Get a stored source
+     * @param path the path of the script
+     * @return the source, or {@code null} if it is not stored
+     */
+    public @Nullable ScriptSource get(@NotNull String path) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        synchronized (sources) {
+            return sources.get(path);
+        }
+    }
+
+    public int size() {
+        synchronized (sources) {
+            return sources.size();
+        }
+    }
+
+    public void clear() {
+        synchronized (sources) {
+            sources.clear();
+        }
+    }
+
+    @Override
+    public void invalidate(@NotNull Set<String> paths) {
+        synchronized (sources) {
+            sources.keySet().removeIf(path -> ScriptCacheInvalidator.isAffected(paths, path));
+        }
+    }
+
+    private void put(ScriptSource source) {
+        synchronized (sources) {
+            sources.put(source.getPath(), source);
+        }
+    }
+
+    private static long getVersion(Resource resource) {
+        ResourceMetadata metadata = resource.getResourceMetadata();
+        if (metadata == null || metadata.getModificationTime() <= 0) {
+            return -1;
+        }
+        return metadata.getModificationTime();
+    }
+
+    /**
+     * Reads either a stored source or, on first access, the whole script, storing its decoded source.
+     */
+    private final class SourceReader extends Reader {
+
+        private final String path;
+        private final long version;
+        private final Reader source;
+        private ScriptSource scriptSource;
+        private Reader delegate;
+
+        private SourceReader(ScriptSource scriptSource) {
+            this.path = scriptSource.getPath();
+            this.version = scriptSource.getVersion();
+            this.source = null;
+            this.scriptSource = scriptSource;
+        }
+
+        private SourceReader(String path, long version, Reader source) {
+            this.path = path;
+            this.version = version;
+            this.source = source;
+        }
+
+        private ScriptSource getSource() throws IOException {
+            if (scriptSource == null) {
+                StringBuilder text = new StringBuilder();
+                char[] buffer = new char[8192];
+                int read;
+                while ((read = source.read(buffer)) != -1) {
+                    text.append(buffer, 0, read);
+                }
+                source.close();
+                String content = text.toString();
+                scriptSource = compress
+                        ? ScriptSource.compressed(path, version, content)
+                        : ScriptSource.of(path, version, content);
+                put(scriptSource);
+            }
+            return scriptSource;
+        }
+
+        @Override
+        public int read(@NotNull char[] cbuf, int off, int len) throws IOException {
+            if (delegate == null) {
+                delegate = new StringReader(getSource().getText());
+            }
+            return delegate.read(cbuf, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (source != null) {
+                source.close();
+            }
+        }
+    }
+}
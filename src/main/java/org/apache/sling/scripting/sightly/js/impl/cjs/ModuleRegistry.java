@@ -0,0 +1,151 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.cjs;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.scripting.sightly.SightlyException;
+import org.apache.sling.scripting.sightly.js.impl.async.AsyncContainer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Registry of the modules loaded through the {@code use} function while processing a request, keyed by the resolved
+ * script path. A module is executed the first time it is used; later uses receive the exports of that first
+ * execution. Since the exports of a module can depend on the current resource, every resource rendered by the request
+ * gets its own registry.
+ * <p>
+ * The registry also tracks which modules wait for which dependencies, so that circular dependencies fail instead of
+ * waiting forever.
+ */
+public class ModuleRegistry {
+
+    private static final String REQ_NS = ModuleRegistry.class.getCanonicalName();
+
+    private final Map<String, AsyncContainer> modules = new HashMap<>();
+    private final Map<String, Set<String>> waitsFor = new HashMap<>();
+
+    /**
+     * Get the registry of the request's current resource, creating it if needed
+     * @param request the current request
+     * @return the module registry
+     */
+    @SuppressWarnings("unchecked")
+    public static @NotNull ModuleRegistry forRequest(@NotNull SlingHttpServletRequest request) {
+        Map<String, ModuleRegistry> registries = (Map<String, ModuleRegistry>) request.getAttribute(REQ_NS);
+        if (registries == null) {
+            registries = new HashMap<>();
+            request.setAttribute(REQ_NS, registries);
+        }
+        Resource resource = request.getResource();
+        return registries.computeIfAbsent(resource == null ? "" : resource.getPath(), key -> new ModuleRegistry());
+    }
+
+    /**
+     * Get a module
+     * @param path the path of the module's script
+     * @return the container of the module's exports, which is not completed yet if the module is still loading, or
+     * {@code null} if the module was not loaded
+     */
+    public @Nullable AsyncContainer get(@NotNull String path) {
+        return modules.get(path);
+    }
+
+    /**
+     * Register a module which is about to be loaded
+     * @param path the path of the module's script
+     * @return the container that has to be completed with the module's exports
+     */
+    public @NotNull AsyncContainer register(@NotNull String path) {
+        AsyncContainer exports = new AsyncContainer();
+        modules.put(path, exports);
+        return exports;
+    }
+
+    /**
+     * Drop a module if it did not finish loading, e.g. because its script failed
+     * @param path the path of the module's script
+     */
+    public void discard(@NotNull String path) {
+        AsyncContainer exports = modules.get(path);
+        if (exports != null && !exports.isCompleted()) {
+            modules.remove(path);
+            for (Set<String> dependencies : waitsFor.values()) {
+                dependencies.remove(path);
+            }
+        }
+    }
+
+    /**
+     * Record that a script waits for a module to be loaded
+     * @param caller the path of the script calling {@code use}
+     * @param dependency the path of the module's script
+     * @throws SightlyException if the module, directly or transitively, waits for the caller
+     */
+    public void await(@NotNull String caller, @NotNull String dependency) {
+        AsyncContainer exports = modules.get(dependency);
+        if (exports == null || exports.isCompleted()) {
+            return;
+        }
+        List<String> cycle = findWaitChain(dependency, caller, new HashSet<>());
+        if (cycle != null) {
+            cycle.add(0, caller);
+            throw new SightlyException("Circular dependency detected: " + String.join(" -> ", cycle) + ".");
+        }
+        Set<String> dependencies = waitsFor.computeIfAbsent(caller, key -> new HashSet<>());
+        if (dependencies.add(dependency)) {
+            exports.addListener(arg -> {
+                Set<String> pending = waitsFor.get(caller);
+                if (pending != null) {
+                    pending.remove(dependency);
+                    if (pending.isEmpty()) {
+                        waitsFor.remove(caller);
+                    }
+                }
+            });
+        }
+    }
+
+    private List<String> findWaitChain(String from, String to, Set<String> visited) {
+        if (from.equals(to)) {
+            LinkedList<String> chain = new LinkedList<>();
+            chain.add(to);
+            return chain;
+        }
+        if (!visited.add(from)) {
+            return null;
+        }
+        for (String next : waitsFor.getOrDefault(from, Collections.emptySet())) {
+            List<String> chain = findWaitChain(next, to, visited);
+            if (chain != null) {
+                chain.add(0, from);
+                return chain;
+            }
+        }
+        return null;
+    }
+}
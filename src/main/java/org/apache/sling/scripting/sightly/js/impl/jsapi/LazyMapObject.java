@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.jsapi;
+
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Plain script object reading its properties through to a Java map. An entry is only converted the first time its
+ * property is read, after which the converted value is kept as an own property of the object; assignments and
+ * deletions only affect the object, never the map.
+ */
+class LazyMapObject extends ScriptableObject {
+
+    private final Map<String, ?> map;
+    private Set<String> deleted;
+
+    LazyMapObject(Scriptable scope, Map<String, ?> map) {
+        super(scope, ScriptableObject.getObjectPrototype(scope));
+        this.map = map;
+    }
+
+    @Override
+    public String getClassName() {
+        return "Object";
+    }
+
+    @Override
+    public boolean has(String name, Scriptable start) {
+        return super.has(name, start) || isMapped(name);
+    }
+
+    @Override
+    public Object get(String name, Scriptable start) {
+        if (super.has(name, start) || !isMapped(name)) {
+            return super.get(name, start);
+        }
+        Object value = convert(map.get(name));
+        super.put(name, this, value);
+        return value;
+    }
+
+    @Override
+    public void delete(String name) {
+        if (isMapped(name)) {
+            if (deleted == null) {
+                deleted = new HashSet<>();
+            }
+            deleted.add(name);
+        }
+        super.delete(name);
+    }
+
+    @Override
+    public Object[] getIds() {
+        Set<Object> ids = new LinkedHashSet<>();
+        for (String name : map.keySet()) {
+            if (deleted == null || !deleted.contains(name)) {
+                ids.add(name);
+            }
+        }
+        for (Object id : super.getIds()) {
+            ids.add(id);
+        }
+        return ids.toArray();
+    }
+
+    /**
+     * Convert a value of the map to its script representation
+     * @param value the value
+     * @return the script value
+     */
+    protected Object convert(Object value) {
+        return Context.javaToJS(value, getParentScope());
+    }
+
+    private boolean isMapped(String name) {
+        return (deleted == null || !deleted.contains(name)) && map.containsKey(name);
+    }
+}
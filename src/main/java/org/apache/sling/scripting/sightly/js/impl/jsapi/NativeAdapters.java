@@ -0,0 +1,113 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.jsapi;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.request.RequestParameter;
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ValueMap;
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ScriptRuntime;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+/**
+ * Java-backed helpers passed to the namespace factories, next to the bindings and the promise library. They expose
+ * Sling objects to the {@code sightly} scripts without copying them into script objects up front:
+ * <ul>
+ *     <li>{@code properties(resource)} - the properties of a resource, read through to its {@link ValueMap}</li>
+ *     <li>{@code parameters(request)} - the parameters of a request, each converted to an array of strings when it is
+ *     first read</li>
+ * </ul>
+ */
+final class NativeAdapters extends ScriptableObject {
+
+    private NativeAdapters() {}
+
+    /**
+     * Create the helpers for a scope. The helpers and their functions are sealed, so that scripts cannot share state
+     * through them.
+     * @param scope the scope the helpers are used in
+     * @return the helpers
+     */
+    static NativeAdapters create(Scriptable scope) {
+        Scriptable topLevelScope = ScriptableObject.getTopLevelScope(scope);
+        NativeAdapters adapters = new NativeAdapters();
+        adapters.setParentScope(topLevelScope);
+        adapters.setPrototype(ScriptableObject.getObjectPrototype(topLevelScope));
+        adapters.define(topLevelScope, "properties", new BaseFunction() {
+            @Override
+            public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+                Resource resource = args.length == 0 ? null : unwrap(args[0], Resource.class);
+                ValueMap valueMap = resource == null ? null : resource.adaptTo(ValueMap.class);
+                if (valueMap == null) {
+                    return cx.newObject(scope);
+                }
+                return new LazyMapObject(scope, valueMap);
+            }
+        });
+        adapters.define(topLevelScope, "parameters", new BaseFunction() {
+            @Override
+            public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+                SlingHttpServletRequest request =
+                        args.length == 0 ? null : unwrap(args[0], SlingHttpServletRequest.class);
+                if (request == null) {
+                    return cx.newObject(scope);
+                }
+                return new LazyMapObject(scope, request.getRequestParameterMap()) {
+                    @Override
+                    protected Object convert(Object value) {
+                        return toStrings(getParentScope(), (RequestParameter[]) value);
+                    }
+                };
+            }
+        });
+        adapters.sealObject();
+        return adapters;
+    }
+
+    @Override
+    public String getClassName() {
+        return "NativeAdapters";
+    }
+
+    private void define(Scriptable scope, String name, BaseFunction function) {
+        // gives the function its call and apply methods
+        ScriptRuntime.setFunctionProtoAndParent(function, scope);
+        function.sealObject();
+        put(name, this, function);
+    }
+
+    private static Object toStrings(Scriptable scope, RequestParameter[] parameters) {
+        if (parameters == null) {
+            return null;
+        }
+        Object[] values = new Object[parameters.length];
+        for (int i = 0; i < parameters.length; i++) {
+            values[i] = parameters[i].getString();
+        }
+        return Context.getCurrentContext().newArray(scope, values);
+    }
+
+    private static <T> T unwrap(Object value, Class<T> type) {
+        Object javaValue = value instanceof Scriptable ? Context.jsToJava(value, Object.class) : value;
+        return type.isInstance(javaValue) ? type.cast(javaValue) : null;
+    }
+}
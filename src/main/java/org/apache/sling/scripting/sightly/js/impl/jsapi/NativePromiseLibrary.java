@@ -0,0 +1,49 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.jsapi;
+
+import org.apache.sling.scripting.sightly.js.impl.async.JsPromise;
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * Stands in for the Q library in the {@code sightly} namespace factories, backed by {@link JsPromise}. It covers the
+ * part of Q used by {@code promise.js}: {@code Q(value)} and {@code Q.reject(reason)}. The library is stateless, so a
+ * single instance is shared by all requests.
+ */
+final class NativePromiseLibrary extends BaseFunction {
+
+    static final NativePromiseLibrary INSTANCE = new NativePromiseLibrary();
+
+    private NativePromiseLibrary() {
+        put("reject", this, new BaseFunction() {
+            @Override
+            public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+                return JsPromise.rejected(args.length == 0 ? Context.getUndefinedValue() : args[0]);
+            }
+        });
+        sealObject();
+    }
+
+    @Override
+    public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+        return JsPromise.resolved(cx, args.length == 0 ? Context.getUndefinedValue() : args[0]);
+    }
+}
@@ -27,7 +27,9 @@ import java.util.Set;
 import org.apache.commons.lang3.StringUtils;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.scripting.LazyBindings;
+import org.apache.sling.scripting.sightly.SightlyException;
 import org.apache.sling.scripting.sightly.js.impl.JsEnvironment;
+import org.apache.sling.scripting.sightly.js.impl.LayeredBindings;
 import org.apache.sling.scripting.sightly.js.impl.rhino.HybridObject;
 import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
@@ -47,12 +49,23 @@ public class ProxyAsyncScriptableFactory {
 
     public void registerProxies(ResourceResolver resourceResolver, JsEnvironment environment, Bindings bindings) {
         slyBindingsValuesProvider.initialise(resourceResolver, environment, bindings);
-        Bindings bindingsCopy = new LazyBindings();
+        Bindings bindingsCopy = new LayeredBindings(bindings);
+        Set<String> creating = new HashSet<>();
         for (String factoryName : slyBindingsValuesProvider.getScriptPaths().keySet()) {
+            // each namespace is only created when it is first read, by a script or by another namespace's factory
+            bindingsCopy.put(factoryName, (LazyBindings.Supplier) () -> {
+                if (!creating.add(factoryName)) {
+                    throw new SightlyException("Circular dependency between the namespaces " + creating + ".");
+                }
+                try {
+                    return slyBindingsValuesProvider.createNamespace(bindingsCopy, factoryName);
+                } finally {
+                    creating.remove(factoryName);
+                }
+            });
             ShadowScriptableObject shadowScriptableObject = new ShadowScriptableObject(factoryName, bindingsCopy);
             bindings.put(factoryName, shadowScriptableObject);
         }
-        bindingsCopy.putAll(bindings);
     }
 
     class ShadowScriptableObject extends ScriptableObject {
@@ -74,11 +87,8 @@ public class ProxyAsyncScriptableFactory {
         @Override
         public Object get(String name, Scriptable start) {
             Object object = bindings.get(clazz);
-            if (!(object instanceof HybridObject)) {
-                slyBindingsValuesProvider.processBindings(bindings);
-            }
-            HybridObject hybridObject = (HybridObject) bindings.get(clazz);
-            if (hybridObject != null) {
+            if (object instanceof HybridObject) {
+                HybridObject hybridObject = (HybridObject) object;
                 String script = (String) bindings.get(ScriptEngine.FILENAME);
                 if (StringUtils.isNotEmpty(script)) {
                     if (scriptNSUse.add(clazz + ":" + script)) {
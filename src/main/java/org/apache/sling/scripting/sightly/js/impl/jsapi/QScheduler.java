@@ -0,0 +1,69 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.jsapi;
+
+import org.apache.sling.scripting.sightly.js.impl.loop.EventLoop;
+import org.apache.sling.scripting.sightly.js.impl.loop.EventLoopInterop;
+import org.apache.sling.scripting.sightly.js.impl.rhino.JsUtils;
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Scriptable;
+
+/**
+ * The {@code setImmediate} function of a reused Q instance, queueing Q's ticks as microtasks of the event loop of the
+ * current request. Q only requests a new tick once the previous one has run, so an instance whose tick was queued on an
+ * event loop that was discarded before running it never flushes again; the scheduler keeps track of the ticks in
+ * flight, so that such instances can be replaced.
+ */
+final class QScheduler extends BaseFunction {
+
+    private EventLoop pendingLoop;
+    private int pendingTicks;
+
+    @Override
+    public Object call(final Context cx, final Scriptable scope, Scriptable thisObj, Object[] args) {
+        if (args.length == 0 || !(args[0] instanceof Function)) {
+            throw new IllegalArgumentException("Timing function must receive a function as the first argument");
+        }
+        final Function function = (Function) args[0];
+        EventLoop eventLoop = EventLoopInterop.obtainEventLoop(cx);
+        pendingLoop = eventLoop;
+        pendingTicks++;
+        eventLoop.queueMicrotask(() -> {
+            try {
+                JsUtils.callFn(function, cx, scope, null, new Object[0]);
+            } finally {
+                if (--pendingTicks == 0) {
+                    pendingLoop = null;
+                }
+            }
+        });
+        return Context.getUndefinedValue();
+    }
+
+    /**
+     * Check if the Q instance using this scheduler can still be used
+     * @param currentLoop the event loop of the current request, if any
+     * @return {@code false} if a tick is still pending on another event loop
+     */
+    boolean isUsable(EventLoop currentLoop) {
+        return pendingTicks == 0 || pendingLoop == currentLoop;
+    }
+}
@@ -20,7 +20,6 @@ package org.apache.sling.scripting.sightly.js.impl.jsapi;
 
 import javax.script.Bindings;
 import javax.script.ScriptEngine;
-import javax.servlet.http.HttpServletRequest;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -30,23 +29,28 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.WeakHashMap;
 
 import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.scripting.LazyBindings;
-import org.apache.sling.api.scripting.SlingBindings;
 import org.apache.sling.commons.osgi.PropertiesUtil;
 import org.apache.sling.scripting.core.ScriptNameAwareReader;
 import org.apache.sling.scripting.sightly.SightlyException;
 import org.apache.sling.scripting.sightly.js.impl.JsEnvironment;
+import org.apache.sling.scripting.sightly.js.impl.LayeredBindings;
 import org.apache.sling.scripting.sightly.js.impl.Variables;
 import org.apache.sling.scripting.sightly.js.impl.async.AsyncContainer;
 import org.apache.sling.scripting.sightly.js.impl.async.AsyncExtractor;
+import org.apache.sling.scripting.sightly.js.impl.async.ClearTimerFunction;
 import org.apache.sling.scripting.sightly.js.impl.async.TimingBindingsValuesProvider;
 import org.apache.sling.scripting.sightly.js.impl.async.TimingFunction;
 import org.apache.sling.scripting.sightly.js.impl.cjs.CommonJsModule;
+import org.apache.sling.scripting.sightly.js.impl.loop.EventLoopInterop;
 import org.apache.sling.scripting.sightly.js.impl.rhino.HybridObject;
 import org.apache.sling.scripting.sightly.js.impl.rhino.JsValueAdapter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
 import org.mozilla.javascript.Script;
@@ -59,6 +63,7 @@ import org.osgi.service.component.annotations.Deactivate;
 import org.osgi.service.metatype.annotations.AttributeDefinition;
 import org.osgi.service.metatype.annotations.Designate;
 import org.osgi.service.metatype.annotations.ObjectClassDefinition;
+import org.osgi.service.metatype.annotations.Option;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -83,6 +88,17 @@ public class SlyBindingsValuesProvider {
                         + "'namespace:/path/from/repository'. If the factories depend on each other, add them in the correct order of their"
                         + " dependency chain.")
         String[] org_apache_sling_scripting_sightly_js_bindings() default SlyBindingsValuesProvider.SLING_NS_PATH;
+
+        @AttributeDefinition(
+                name = "Promise Implementation",
+                description = "The promise library passed to the script factories. The native implementation only "
+                        + "provides the Q(value) and Q.reject(reason) functions used by the sightly namespace; choose Q "
+                        + "for factories relying on the rest of the Q API.",
+                options = {
+                    @Option(label = "Q (bundled q.js)", value = "Q"),
+                    @Option(label = "Native Java promises", value = "NATIVE")
+                })
+        String promise_implementation() default "Q";
     }
 
     public static final String SCR_PROP_JS_BINDING_IMPLEMENTATIONS = "org.apache.sling.scripting.sightly.js.bindings";
@@ -90,8 +106,6 @@ public class SlyBindingsValuesProvider {
     public static final String SLING_NS_PATH = "sightly:/libs/sling/sightly/js/internal/sly.js";
     public static final String Q_PATH = "/libs/sling/sightly/js/3rd-party/q.js";
 
-    private static final String REQ_NS = SlyBindingsValuesProvider.class.getCanonicalName();
-
     private static final Logger LOGGER = LoggerFactory.getLogger(SlyBindingsValuesProvider.class);
 
     private final AsyncExtractor asyncExtractor = new AsyncExtractor();
@@ -101,7 +115,11 @@ public class SlyBindingsValuesProvider {
     private Map<String, Function> factories = new HashMap<>();
 
     private Script qScript;
+    private boolean nativePromises;
     private final ScriptableObject qScope = createQScope();
+    // Q keeps its tick queue in module state, so an instance can be reused by the requests of one thread only; the
+    // instances are owned by the component, so that deactivating it releases them for all threads
+    private final Map<Thread, QInstance> qInstances = Collections.synchronizedMap(new WeakHashMap<>());
 
     public void initialise(ResourceResolver resourceResolver, JsEnvironment environment, Bindings bindings) {
         if (needsInit()) {
@@ -113,20 +131,35 @@ public class SlyBindingsValuesProvider {
         if (needsInit()) {
             throw new SightlyException("Attempted to call processBindings without calling initialise first.");
         }
-        Context context = null;
+        for (String namespace : scriptPaths.keySet()) {
+            Object namespaceObject = createNamespace(bindings, namespace);
+            if (namespaceObject != null) {
+                bindings.put(namespace, namespaceObject);
+            }
+        }
+    }
+
+    /**
+     * Run the factory of a single namespace. Factories depending on other namespaces find them in the bindings, so
+     * that lazily provided namespaces are created on demand, in dependency order.
+     * @param bindings the bindings passed to the factory
+     * @param namespace the namespace
+     * @return the namespace object, or {@code null} if the namespace cannot be created
+     */
+    public @Nullable HybridObject createNamespace(@NotNull Bindings bindings, @NotNull String namespace) {
+        if (needsInit()) {
+            throw new SightlyException(
+                    "Attempted to create the " + namespace + " namespace without calling initialise first.");
+        }
+        Context context = Context.enter();
         try {
-            context = Context.enter();
             Object qInstance = obtainQInstance(context, bindings);
             if (qInstance == null) {
-                return;
-            }
-            for (Map.Entry<String, Function> entry : factories.entrySet()) {
-                addBinding(context, entry.getValue(), bindings, entry.getKey(), qInstance);
+                return null;
             }
+            return createNamespace(context, factories.get(namespace), bindings, qInstance);
         } finally {
-            if (context != null) {
-                Context.exit();
-            }
+            Context.exit();
         }
     }
 
@@ -145,6 +178,7 @@ public class SlyBindingsValuesProvider {
                 scriptPaths.put(parts[0], parts[1]);
             }
         }
+        nativePromises = "NATIVE".equals(configuration.promise_implementation());
     }
 
     @Deactivate
@@ -155,19 +189,20 @@ public class SlyBindingsValuesProvider {
         if (factories != null) {
             factories.clear();
         }
+        qInstances.clear();
     }
 
-    private void addBinding(Context context, Function factory, Bindings bindings, String globalName, Object qInstance) {
+    private HybridObject createNamespace(Context context, Function factory, Bindings bindings, Object qInstance) {
         if (factory == null) {
-            return;
+            return null;
         }
-        Object result = factory.call(context, factory, factory, new Object[] {bindings, qInstance});
-        HybridObject global = new HybridObject((Scriptable) result, jsValueAdapter);
-        bindings.put(globalName, global);
+        Object result = factory.call(
+                context, factory, factory, new Object[] {bindings, qInstance, NativeAdapters.create(factory)});
+        return new HybridObject((Scriptable) result, jsValueAdapter);
     }
 
     private boolean needsInit() {
-        return factories == null || factories.isEmpty() || qScript == null;
+        return factories == null || factories.isEmpty() || (qScript == null && !nativePromises);
     }
 
     private synchronized void init(ResourceResolver resourceResolver, JsEnvironment jsEnvironment, Bindings bindings) {
@@ -176,7 +211,9 @@ public class SlyBindingsValuesProvider {
             for (Map.Entry<String, String> entry : scriptPaths.entrySet()) {
                 factories.put(entry.getKey(), loadFactory(resourceResolver, jsEnvironment, entry.getValue(), bindings));
             }
-            qScript = loadQScript(resourceResolver);
+            if (!nativePromises) {
+                qScript = loadQScript(resourceResolver);
+            }
         }
     }
 
@@ -203,55 +240,61 @@ public class SlyBindingsValuesProvider {
     }
 
     private Bindings createBindings(Bindings global, String factoryPath) {
-        Bindings bindings = new LazyBindings();
-        bindings.putAll(global);
+        Bindings bindings = new LayeredBindings(global);
         bindings.put(ScriptEngine.FILENAME, factoryPath);
         TimingBindingsValuesProvider.INSTANCE.addBindings(bindings);
         return bindings;
     }
 
     private Object obtainQInstance(Context context, Bindings bindings) {
+        if (nativePromises) {
+            return NativePromiseLibrary.INSTANCE;
+        }
         if (qScript == null) {
             return null;
         }
-        HttpServletRequest request = (HttpServletRequest) bindings.get(SlingBindings.REQUEST);
-        Object qInstance = null;
-        if (request != null) {
-            qInstance = request.getAttribute(REQ_NS);
-        }
-        if (qInstance == null) {
+        Thread thread = Thread.currentThread();
+        QInstance qInstance = qInstances.get(thread);
+        if (qInstance == null || !qInstance.scheduler.isUsable(EventLoopInterop.getEventLoop(context))) {
             qInstance = createQInstance(context, qScript);
-            if (request != null) {
-                request.setAttribute(REQ_NS, qInstance);
-            }
+            qInstances.put(thread, qInstance);
         }
-        return qInstance;
+        return qInstance.exports;
     }
 
     private ScriptableObject createQScope() {
         Context context = Context.enter();
         try {
             ScriptableObject scope = context.initStandardObjects();
-            ScriptableObject.putProperty(scope, Variables.SET_IMMEDIATE, TimingFunction.INSTANCE);
-            ScriptableObject.putProperty(scope, Variables.SET_TIMEOUT, TimingFunction.INSTANCE);
+            // Q requests its ticks through setImmediate; its promise reactions are microtasks
+            ScriptableObject.putProperty(scope, Variables.SET_IMMEDIATE, TimingFunction.QUEUE_MICROTASK);
+            ScriptableObject.putProperty(scope, Variables.SET_TIMEOUT, TimingFunction.SET_TIMEOUT);
+            ScriptableObject.putProperty(scope, Variables.CLEAR_IMMEDIATE, ClearTimerFunction.INSTANCE);
+            ScriptableObject.putProperty(scope, Variables.CLEAR_TIMEOUT, ClearTimerFunction.INSTANCE);
             return scope;
         } finally {
             Context.exit();
         }
     }
 
-    private Object createQInstance(Context context, Script qScript) {
+    private QInstance createQInstance(Context context, Script qScript) {
         CommonJsModule module = new CommonJsModule();
+        QScheduler scheduler = new QScheduler();
         Scriptable tempScope = context.newObject(qScope);
         ScriptableObject.putProperty(tempScope, Variables.MODULE, module);
         ScriptableObject.putProperty(tempScope, Variables.EXPORTS, module.getExports());
+        ScriptableObject.putProperty(tempScope, Variables.SET_IMMEDIATE, scheduler);
         qScript.exec(context, tempScope);
-        return module.getExports();
+        Object exports = module.getExports();
+        if (exports instanceof Scriptable) {
+            // a reused instance would otherwise keep every rejection nobody handled
+            ScriptableObject.callMethod(context, (Scriptable) exports, "stopUnhandledRejectionTracking", new Object[0]);
+        }
+        return new QInstance(exports, scheduler);
     }
 
     private Script loadQScript(ResourceResolver resolver) {
         Context context = Context.enter();
-        context.initStandardObjects();
         context.setOptimizationLevel(9);
         Resource resource = resolver.getResource(Q_PATH);
         if (resource == null) {
@@ -271,4 +314,15 @@ public class SlyBindingsValuesProvider {
         }
         return null;
     }
+
+    private static final class QInstance {
+
+        private final Object exports;
+        private final QScheduler scheduler;
+
+        private QInstance(Object exports, QScheduler scheduler) {
+            this.exports = exports;
+            this.scheduler = scheduler;
+        }
+    }
 }
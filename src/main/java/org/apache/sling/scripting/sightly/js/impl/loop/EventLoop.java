@@ -18,22 +18,61 @@
  */
 package org.apache.sling.scripting.sightly.js.impl.loop;
 
-import java.util.LinkedList;
+import java.util.ArrayDeque;
+import java.util.PriorityQueue;
 import java.util.Queue;
 
 import org.apache.sling.scripting.sightly.SightlyException;
+import org.apache.sling.scripting.sightly.js.impl.BudgetExceededException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
  * Simulates an event loop for the Rhino JS engine.
+ * <p>
+ * Macrotasks ({@code setImmediate} and {@code setTimeout} callbacks, scripts) run one at a time; after each of them,
+ * the microtask queue (promise reactions) is drained completely, following the ordering of Promises/A+
+ * implementations. Delayed tasks are ordered by their due time on a virtual clock, which advances by one millisecond
+ * per macrotask and jumps to the next due time once no other task is left, so delays never make the request sleep.
+ * Timers that are due join the macrotask queue before each turn, so a task rescheduling itself through
+ * {@code setImmediate} cannot starve them. The immediate queues are array based ring
+ * buffers, so queueing a task does not allocate a list node, and the slots holding delayed tasks in the timer queue are
+ * reused once their task ran. The {@link Task} objects themselves are not pooled, since they are the handles scripts
+ * cancel their timers with.
+ * <p>
+ * The number of tasks a single run of the loop processes can be limited, so that endless task or promise chains fail
+ * instead of pinning the request thread.
  */
 public class EventLoop {
 
     private static final Logger log = LoggerFactory.getLogger(EventLoop.class);
 
-    private Queue<Task> taskQueue = new LinkedList<Task>();
+    private final Queue<Runnable> microtasks = new ArrayDeque<>();
+    private final Queue<Task> macrotasks = new ArrayDeque<>();
+    private final Queue<ScheduledTask> timers = new PriorityQueue<>();
+    private final ArrayDeque<ScheduledTask> freeSlots = new ArrayDeque<>();
+    private final int maxTasks;
     private boolean isRunning;
+    private long currentTime;
+    private long sequence;
+    private Exception thrownException;
+
+    private int taskCount;
+    private int microtaskCount;
+    private int highWaterMark;
+    private int runTaskCount;
+
+    public EventLoop() {
+        this(0);
+    }
+
+    /**
+     * @param maxTasks the maximum number of tasks and microtasks processed by a single run of the loop; a value of 0
+     *                 disables the limit
+     */
+    public EventLoop(int maxTasks) {
+        this.maxTasks = maxTasks;
+    }
 
     /**
      * Add a task to the queue. If the queue is empty, start running tasks. If it
@@ -41,36 +80,221 @@ public class EventLoop {
      * @param task the task to be added
      */
     public void schedule(Task task) {
-        taskQueue.offer(task);
+        schedule(task, 0);
+    }
+
+    /**
+     * Add a task to the queue, to be run once the virtual clock has advanced by the given delay
+     * @param task the task to be added
+     * @param delay the delay in milliseconds; negative values are treated as {@code 0}
+     */
+    public void schedule(Task task, long delay) {
+        if (delay > 0) {
+            ScheduledTask slot = freeSlots.poll();
+            if (slot == null) {
+                slot = new ScheduledTask();
+            }
+            timers.offer(slot.set(task, currentTime + delay, sequence++));
+        } else {
+            macrotasks.offer(task);
+        }
+        updateHighWaterMark();
         run();
     }
 
+    /**
+     * Add a microtask, which runs as soon as the current task completes and before any other macrotask
+     * @param microtask the microtask to be added
+     */
+    public void queueMicrotask(Runnable microtask) {
+        microtasks.offer(microtask);
+        updateHighWaterMark();
+        run();
+    }
+
+    /**
+     * Run a task right away, without queueing it. If the loop is not already running, the tasks scheduled by the
+     * given one are run afterwards, before this method returns.
+     * @param runnable the task to run
+     */
+    public void execute(Runnable runnable) {
+        if (isRunning) {
+            runnable.run();
+            return;
+        }
+        isRunning = true;
+        try {
+            runnable.run();
+        } finally {
+            isRunning = false;
+        }
+        run();
+    }
+
+    /**
+     * @return the current time of the virtual clock, in milliseconds since the loop was created
+     */
+    public long getCurrentTime() {
+        return currentTime;
+    }
+
+    /**
+     * @return the number of macrotasks run by this loop
+     */
+    public int getTaskCount() {
+        return taskCount;
+    }
+
+    /**
+     * @return the number of microtasks run by this loop
+     */
+    public int getMicrotaskCount() {
+        return microtaskCount;
+    }
+
+    /**
+     * @return the highest number of tasks, of all kinds, waiting in the queues at the same time
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
     private void run() {
         if (isRunning) {
             return;
         }
         isRunning = true;
+        runTaskCount = 0;
         try {
-            // Holds the first exception encountered. If there is such a first exception, it will be
-            // rethrown
-            Exception thrownException = null;
-            while (!taskQueue.isEmpty()) {
-                Task task = taskQueue.poll();
-                try {
-                    task.run();
-                } catch (Exception e) {
-                    if (thrownException == null) {
-                        thrownException = e; // first exception
-                    } else {
-                        log.error("Additional error occurred while running JS script: ", e);
-                    }
-                }
+            drainMicrotasks();
+            Task task;
+            while ((task = nextTask()) != null) {
+                taskCount++;
+                checkBudget();
+                runSafely(task::run);
+                drainMicrotasks();
             }
             if (thrownException != null) {
                 throw new SightlyException(thrownException);
             }
         } finally {
+            thrownException = null;
             isRunning = false;
         }
     }
+
+    private Task nextTask() {
+        queueDueTimers();
+        Task task;
+        while ((task = macrotasks.poll()) != null) {
+            if (task.isActive()) {
+                // each turn takes a tick of the virtual clock, so that timers become due even while tasks keep queueing
+                // new immediate tasks
+                currentTime++;
+                return task;
+            }
+        }
+        ScheduledTask timer;
+        while ((timer = timers.poll()) != null) {
+            Task timerTask = timer.task;
+            long dueTime = timer.dueTime;
+            freeSlots.offer(timer.set(null, 0, 0));
+            // cancelled tasks are dropped without advancing the clock
+            if (timerTask.isActive()) {
+                currentTime = Math.max(currentTime, dueTime);
+                return timerTask;
+            }
+        }
+        return null;
+    }
+
+    private void queueDueTimers() {
+        ScheduledTask timer;
+        while ((timer = timers.peek()) != null && timer.dueTime <= currentTime) {
+            timers.poll();
+            Task timerTask = timer.task;
+            freeSlots.offer(timer.set(null, 0, 0));
+            if (timerTask.isActive()) {
+                macrotasks.offer(timerTask);
+            }
+        }
+    }
+
+    private void drainMicrotasks() {
+        Runnable microtask;
+        while ((microtask = microtasks.poll()) != null) {
+            microtaskCount++;
+            checkBudget();
+            runSafely(microtask);
+        }
+    }
+
+    private void checkBudget() {
+        if (maxTasks > 0 && ++runTaskCount > maxTasks) {
+            clearQueues();
+            throw new BudgetExceededException("The script execution exceeded its budget of " + maxTasks + " tasks.");
+        }
+    }
+
+    private void runSafely(Runnable runnable) {
+        try {
+            runnable.run();
+        } catch (Exception e) {
+            BudgetExceededException budgetExceeded = getBudgetExceeded(e);
+            if (budgetExceeded != null) {
+                // an exceeded budget stops the execution right away, instead of letting the queued tasks run
+                clearQueues();
+                throw budgetExceeded;
+            }
+            // Holds the first exception encountered, which will be rethrown once the queues are empty
+            if (thrownException == null) {
+                thrownException = e;
+            } else {
+                log.error("Additional error occurred while running JS script: ", e);
+            }
+        }
+    }
+
+    private void clearQueues() {
+        microtasks.clear();
+        macrotasks.clear();
+        timers.clear();
+    }
+
+    private static BudgetExceededException getBudgetExceeded(Throwable throwable) {
+        // Rhino wraps the exceptions thrown by host objects and by the instruction observer
+        for (Throwable cause = throwable; cause != null; cause = cause.getCause() == cause ? null : cause.getCause()) {
+            if (cause instanceof BudgetExceededException) {
+                return (BudgetExceededException) cause;
+            }
+        }
+        return null;
+    }
+
+    private void updateHighWaterMark() {
+        int queued = microtasks.size() + macrotasks.size() + timers.size();
+        if (queued > highWaterMark) {
+            highWaterMark = queued;
+        }
+    }
+
+    private static final class ScheduledTask implements Comparable<ScheduledTask> {
+
+        private Task task;
+        private long dueTime;
+        private long sequence;
+
+        private ScheduledTask set(Task task, long dueTime, long sequence) {
+            this.task = task;
+            this.dueTime = dueTime;
+            this.sequence = sequence;
+            return this;
+        }
+
+        @Override
+        public int compareTo(ScheduledTask other) {
+            int result = Long.compare(dueTime, other.dueTime);
+            return result != 0 ? result : Long.compare(sequence, other.sequence);
+        }
+    }
 }
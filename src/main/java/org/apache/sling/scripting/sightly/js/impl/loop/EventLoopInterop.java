@@ -19,6 +19,8 @@
 package org.apache.sling.scripting.sightly.js.impl.loop;
 
 import org.mozilla.javascript.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Event-loop utilities for interoperability with JS code
@@ -27,26 +29,59 @@ public class EventLoopInterop {
 
     public static final String EVENT_LOOP_KEY = "EventLoop";
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventLoopInterop.class);
+
     public static EventLoop obtainEventLoop(Context context) {
+        return obtainEventLoop(context, 0);
+    }
+
+    /**
+     * Get the event loop of a context, creating it if needed
+     * @param context the context
+     * @param maxTasks the maximum number of tasks a run of a new loop can process; 0 disables the limit
+     * @return the event loop
+     */
+    public static EventLoop obtainEventLoop(Context context, int maxTasks) {
         EventLoop eventLoop = getEventLoop(context);
         if (eventLoop == null) {
-            eventLoop = new EventLoop();
+            eventLoop = new EventLoop(maxTasks);
             context.putThreadLocal(EVENT_LOOP_KEY, eventLoop);
         }
         return eventLoop;
     }
 
     public static void cleanupEventLoop(Context context) {
+        EventLoop eventLoop = getEventLoop(context);
+        if (eventLoop != null && LOGGER.isDebugEnabled()) {
+            LOGGER.debug(
+                    "Event loop ran {} tasks and {} microtasks; queue high-water mark: {}.",
+                    eventLoop.getTaskCount(),
+                    eventLoop.getMicrotaskCount(),
+                    eventLoop.getHighWaterMark());
+        }
         context.removeThreadLocal(EVENT_LOOP_KEY);
     }
 
     public static Task schedule(Context context, Runnable runnable) {
+        return schedule(context, runnable, 0);
+    }
+
+    public static Task schedule(Context context, Runnable runnable, long delay) {
         Task task = new Task(runnable);
-        obtainEventLoop(context).schedule(task);
+        obtainEventLoop(context).schedule(task, delay);
         return task;
     }
 
-    private static EventLoop getEventLoop(Context context) {
+    public static void queueMicrotask(Context context, Runnable runnable) {
+        obtainEventLoop(context).queueMicrotask(runnable);
+    }
+
+    /**
+     * Get the event loop of a context, without creating it
+     * @param context the context
+     * @return the event loop, or {@code null} if the context has none
+     */
+    public static EventLoop getEventLoop(Context context) {
         return (EventLoop) context.getThreadLocal(EVENT_LOOP_KEY);
     }
 }
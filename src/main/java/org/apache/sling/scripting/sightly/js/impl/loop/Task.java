@@ -37,6 +37,10 @@ public class Task {
         }
     }
 
+    public boolean isActive() {
+        return active;
+    }
+
     public void deactivate() {
         this.active = false;
     }
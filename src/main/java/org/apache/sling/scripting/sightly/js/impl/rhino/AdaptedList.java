@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.rhino;
+
+import java.util.AbstractList;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.function.IntFunction;
+
+import org.mozilla.javascript.Context;
+
+/**
+ * Read-only list view over a JS array or a Java list, adapting its elements on first access.
+ */
+class AdaptedList extends AbstractList<Object> implements RandomAccess {
+
+    private static final Object NOT_ADAPTED = new Object();
+
+    private final JsValueAdapter jsValueAdapter;
+    private final Map<Object, Object> adapted;
+    private final int depth;
+    private final IntFunction<Object> source;
+    private final Object[] values;
+
+    AdaptedList(
+            JsValueAdapter jsValueAdapter,
+            Map<Object, Object> adapted,
+            int depth,
+            int size,
+            IntFunction<Object> source) {
+        this.jsValueAdapter = jsValueAdapter;
+        this.adapted = adapted;
+        this.depth = depth;
+        this.source = source;
+        this.values = new Object[size];
+        for (int i = 0; i < size; i++) {
+            values[i] = NOT_ADAPTED;
+        }
+    }
+
+    @Override
+    public Object get(int index) {
+        Object value = values[index];
+        if (value == NOT_ADAPTED) {
+            Context context = jsValueAdapter.enterContext();
+            try {
+                value = jsValueAdapter.adapt(source.apply(index), adapted, depth + 1);
+            } finally {
+                jsValueAdapter.exitContext(context);
+            }
+            values[index] = value;
+        }
+        return value;
+    }
+
+    @Override
+    public int size() {
+        return values.length;
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.rhino;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.mozilla.javascript.Context;
+
+/**
+ * Read-only map view over a Java map, adapting its values on first access.
+ */
+class AdaptedMap extends AbstractMap<Object, Object> {
+
+    private final JsValueAdapter jsValueAdapter;
+    private final Map<Object, Object> adapted;
+    private final int depth;
+    private final Map<Object, Object> source;
+    private final Map<Object, Object> values = new HashMap<>();
+
+    AdaptedMap(JsValueAdapter jsValueAdapter, Map<Object, Object> adapted, int depth, Map<Object, Object> source) {
+        this.jsValueAdapter = jsValueAdapter;
+        this.adapted = adapted;
+        this.depth = depth;
+        this.source = source;
+    }
+
+    @Override
+    public Object get(Object key) {
+        if (values.containsKey(key)) {
+            return values.get(key);
+        }
+        if (!source.containsKey(key)) {
+            return null;
+        }
+        Object value;
+        Context context = jsValueAdapter.enterContext();
+        try {
+            value = jsValueAdapter.adapt(source.get(key), adapted, depth + 1);
+        } finally {
+            jsValueAdapter.exitContext(context);
+        }
+        values.put(key, value);
+        return value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return source.containsKey(key);
+    }
+
+    @Override
+    public int size() {
+        return source.size();
+    }
+
+    @Override
+    public Set<Entry<Object, Object>> entrySet() {
+        return new AbstractSet<Entry<Object, Object>>() {
+            @Override
+            public Iterator<Entry<Object, Object>> iterator() {
+                Iterator<Object> keys = source.keySet().iterator();
+                return new Iterator<Entry<Object, Object>>() {
+                    @Override
+                    public boolean hasNext() {
+                        return keys.hasNext();
+                    }
+
+                    @Override
+                    public Entry<Object, Object> next() {
+                        Object key = keys.next();
+                        return new SimpleImmutableEntry<>(key, get(key));
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return source.size();
+            }
+        };
+    }
+}
@@ -0,0 +1,193 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.rhino;
+
+import java.util.BitSet;
+
+import org.apache.sling.scripting.sightly.js.impl.BudgetExceededException;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.ContextFactory;
+import org.mozilla.javascript.WrapFactory;
+
+/**
+ * Context factory enforcing an instruction budget on Use-API script executions. Contexts created by this factory use
+ * the same settings as the ones created by the global factory, which is configured by the JavaScript engine.
+ */
+public class BudgetContextFactory extends ContextFactory {
+
+    private static final String BUDGET_KEY = "InstructionBudget";
+    private static final int OBSERVER_THRESHOLD = 10000;
+
+    private final long instructionBudget;
+    private volatile Settings settings;
+
+    /**
+     * @param instructionBudget the maximum number of instructions an execution can run; a value of 0 disables the
+     *                          budget
+     */
+    public BudgetContextFactory(long instructionBudget) {
+        this.instructionBudget = instructionBudget;
+    }
+
+    /**
+     * Enter a context and start a new execution, with a full budget
+     * @return the current context
+     */
+    public Context enterExecution() {
+        Context context = enterContext();
+        context.putThreadLocal(BUDGET_KEY, new InstructionCounter(context.getThreadLocal(BUDGET_KEY)));
+        return context;
+    }
+
+    /**
+     * Exit an execution started with {@link #enterExecution()}, restoring the budget of the enclosing execution, if
+     * any
+     * @param context the current context
+     */
+    public void exitExecution(Context context) {
+        Object counter = context.getThreadLocal(BUDGET_KEY);
+        if (counter instanceof InstructionCounter && ((InstructionCounter) counter).enclosing != null) {
+            context.putThreadLocal(BUDGET_KEY, ((InstructionCounter) counter).enclosing);
+        } else {
+            context.removeThreadLocal(BUDGET_KEY);
+        }
+        Context.exit();
+    }
+
+    @Override
+    protected Context makeContext() {
+        Context context = super.makeContext();
+        Settings globalSettings = getSettings();
+        context.setLanguageVersion(globalSettings.languageVersion);
+        context.setOptimizationLevel(globalSettings.optimizationLevel);
+        if (globalSettings.wrapFactory != null) {
+            context.setWrapFactory(globalSettings.wrapFactory);
+        }
+        if (globalSettings.applicationClassLoader != null) {
+            context.setApplicationClassLoader(globalSettings.applicationClassLoader);
+        }
+        if (instructionBudget > 0) {
+            context.setInstructionObserverThreshold(OBSERVER_THRESHOLD);
+        }
+        return context;
+    }
+
+    @Override
+    protected boolean hasFeature(Context cx, int featureIndex) {
+        Settings globalSettings = getSettings();
+        if (featureIndex < globalSettings.supportedFeatures) {
+            return globalSettings.features.get(featureIndex);
+        }
+        return super.hasFeature(cx, featureIndex);
+    }
+
+    @Override
+    protected void observeInstructionCount(Context cx, int instructionCount) {
+        Object counter = cx.getThreadLocal(BUDGET_KEY);
+        if (instructionBudget > 0 && counter instanceof InstructionCounter) {
+            InstructionCounter instructionCounter = (InstructionCounter) counter;
+            instructionCounter.instructions += instructionCount;
+            if (instructionCounter.instructions > instructionBudget) {
+                throw new BudgetExceededException(
+                        "The script execution exceeded its budget of " + instructionBudget + " instructions.");
+            }
+        }
+    }
+
+    private Settings getSettings() {
+        Settings current = settings;
+        if (current == null) {
+            synchronized (this) {
+                current = settings;
+                if (current == null) {
+                    current = Settings.read();
+                    settings = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    private static final class InstructionCounter {
+
+        private final Object enclosing;
+        private long instructions;
+
+        private InstructionCounter(Object enclosing) {
+            this.enclosing = enclosing;
+        }
+    }
+
+    /**
+     * The settings of the contexts created by the global context factory.
+     */
+    private static final class Settings {
+
+        private final int languageVersion;
+        private final int optimizationLevel;
+        private final WrapFactory wrapFactory;
+        private final ClassLoader applicationClassLoader;
+        private final BitSet features;
+        private final int supportedFeatures;
+
+        private Settings(
+                int languageVersion,
+                int optimizationLevel,
+                WrapFactory wrapFactory,
+                ClassLoader applicationClassLoader,
+                BitSet features,
+                int supportedFeatures) {
+            this.languageVersion = languageVersion;
+            this.optimizationLevel = optimizationLevel;
+            this.wrapFactory = wrapFactory;
+            this.applicationClassLoader = applicationClassLoader;
+            this.features = features;
+            this.supportedFeatures = supportedFeatures;
+        }
+
+        /**
+         * Must be called while no context is entered on the current thread, so that a context is created by the global
+         * factory.
+         */
+        private static Settings read() {
+            Context global = ContextFactory.getGlobal().enterContext();
+            try {
+                BitSet features = new BitSet();
+                int featureIndex = 1;
+                while (true) {
+                    try {
+                        features.set(featureIndex, global.hasFeature(featureIndex));
+                    } catch (IllegalArgumentException e) {
+                        break;
+                    }
+                    featureIndex++;
+                }
+                return new Settings(
+                        global.getLanguageVersion(),
+                        global.getOptimizationLevel(),
+                        global.getWrapFactory(),
+                        global.getApplicationClassLoader(),
+                        features,
+                        featureIndex);
+            } finally {
+                Context.exit();
+            }
+        }
+    }
+}
@@ -18,7 +18,11 @@
  */
 package org.apache.sling.scripting.sightly.js.impl.rhino;
 
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Set;
 
 import org.apache.sling.scripting.sightly.Record;
@@ -28,16 +32,34 @@ import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
 
 /**
- * Instances of this class can be used in both HTL &amp; JavaScript scripts.
+ * Instances of this class can be used in both HTL &amp; JavaScript scripts. Unless disabled through the
+ * {@link JsValueAdapter}, the adapted property values and the property names are memoized: function-valued properties
+ * are only called once.
+ * <p>
+ * Script objects are exposed to HTL as {@link Record}s on purpose, not as {@link Map}s. HTL treats an empty map as
+ * {@code false} and iterates maps over their keys, which would change how existing templates render script objects.
  */
 public class HybridObject implements Scriptable, Record<Object> {
 
+    private static final Object NULL = new Object();
+
     private final Scriptable scriptable;
     private final JsValueAdapter jsValueAdapter;
+    private final Map<Object, Object> adapted;
+    private final int depth;
+    private final Map<String, Object> properties;
+    private Set<String> propertyNames;
 
     public HybridObject(Scriptable scriptable, JsValueAdapter jsValueAdapter) {
+        this(scriptable, jsValueAdapter, new IdentityHashMap<>(), 0);
+    }
+
+    HybridObject(Scriptable scriptable, JsValueAdapter jsValueAdapter, Map<Object, Object> adapted, int depth) {
         this.scriptable = scriptable;
         this.jsValueAdapter = jsValueAdapter;
+        this.adapted = adapted;
+        this.depth = depth;
+        this.properties = jsValueAdapter.isMemoizingProperties() ? new HashMap<>() : null;
     }
 
     // Record implementation
@@ -47,21 +69,38 @@ public class HybridObject implements Scriptable, Record<Object> {
         if (name == null) {
             return null;
         }
-        Context.enter();
+        if (properties != null) {
+            Object value = properties.get(name);
+            if (value != null) {
+                return value == NULL ? null : value;
+            }
+        }
+        Object value;
+        Context context = jsValueAdapter.enterContext();
         try {
-            return getAdapted(name);
+            value = getAdapted(name);
         } finally {
-            Context.exit();
+            jsValueAdapter.exitContext(context);
         }
+        if (properties != null) {
+            properties.put(name, value == null ? NULL : value);
+        }
+        return value;
     }
 
     @Override
     public Set<String> getPropertyNames() {
-        Object[] properties = scriptable.getIds();
-        Set<String> keys = new HashSet<String>();
-        for (Object property : properties) {
-            if (property instanceof String) {
-                keys.add((String) property);
+        Set<String> keys = propertyNames;
+        if (keys == null) {
+            keys = new LinkedHashSet<>();
+            for (Object property : scriptable.getIds()) {
+                if (property instanceof String) {
+                    keys.add((String) property);
+                }
+            }
+            keys = Collections.unmodifiableSet(keys);
+            if (properties != null) {
+                propertyNames = keys;
             }
         }
         return keys;
@@ -73,9 +112,17 @@ public class HybridObject implements Scriptable, Record<Object> {
             return null;
         }
         if (obj instanceof Function) {
-            return jsValueAdapter.adapt(JsUtils.callFn((Function) obj, null, scriptable, scriptable, new Object[0]));
+            return jsValueAdapter.adapt(
+                    JsUtils.callFn((Function) obj, null, scriptable, scriptable, new Object[0]), adapted, depth + 1);
+        }
+        return jsValueAdapter.adapt(obj, adapted, depth + 1);
+    }
+
+    private void forget(String name) {
+        if (properties != null) {
+            properties.remove(name);
+            propertyNames = null;
         }
-        return jsValueAdapter.adapt(obj);
     }
 
     // Scriptable implementation
@@ -107,17 +154,20 @@ public class HybridObject implements Scriptable, Record<Object> {
 
     @Override
     public void put(String name, Scriptable start, Object value) {
-        scriptable.put(name, start, value);
+        // the wrapped object would hand the assignment back to a foreign start object, i.e. to this one
+        scriptable.put(name, start == this ? scriptable : start, value);
+        forget(name);
     }
 
     @Override
     public void put(int index, Scriptable start, Object value) {
-        scriptable.put(index, start, value);
+        scriptable.put(index, start == this ? scriptable : start, value);
     }
 
     @Override
     public void delete(String name) {
         scriptable.delete(name);
+        forget(name);
     }
 
     @Override
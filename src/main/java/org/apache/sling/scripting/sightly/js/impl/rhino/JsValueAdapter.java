@@ -20,24 +20,52 @@ package org.apache.sling.scripting.sightly.js.impl.rhino;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.sling.scripting.sightly.js.impl.async.AsyncContainer;
 import org.apache.sling.scripting.sightly.js.impl.async.AsyncExtractor;
+import org.apache.sling.scripting.sightly.js.spi.JsValueConverter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.mozilla.javascript.Context;
 import org.mozilla.javascript.Function;
 import org.mozilla.javascript.NativeArray;
+import org.mozilla.javascript.Scriptable;
 import org.mozilla.javascript.ScriptableObject;
 import org.mozilla.javascript.Wrapper;
 
 /**
- * Converts JS objects to Java objects
+ * Converts JS objects to Java objects. Each top-level conversion keeps track of the objects it has already converted,
+ * so that objects referenced several times are converted to the same Java object and cyclic graphs are preserved
+ * instead of being followed forever. How the values of a class are converted is determined once per class; external
+ * {@link JsValueConverter}s take precedence over the built-in conversions.
  */
 public class JsValueAdapter {
 
+    /**
+     * Defines how arrays, lists and maps are converted.
+     */
+    public enum Mode {
+        /**
+         * Arrays, lists and maps are converted to read-only views adapting their elements on first access.
+         */
+        LAZY,
+        /**
+         * Arrays, lists and maps are converted to copies, recursively adapting all their elements upfront, up to the
+         * maximum conversion depth; deeper values are converted lazily.
+         */
+        EAGER
+    }
+
+    public static final int DEFAULT_MAX_DEPTH = 32;
+
     private static final Map<String, Class<?>> knownConversions = new HashMap<String, Class<?>>();
 
     static {
@@ -46,9 +74,79 @@ public class JsValueAdapter {
     }
 
     private final AsyncExtractor asyncExtractor;
+    private final Mode mode;
+    private final int maxDepth;
+    private final boolean memoizeProperties;
+    private final BudgetContextFactory contextFactory;
+    private final AtomicReference<DispatchTable> dispatchTable =
+            new AtomicReference<>(new DispatchTable(Collections.emptyList(), Collections.emptyMap()));
 
     public JsValueAdapter(AsyncExtractor asyncExtractor) {
+        this(asyncExtractor, Mode.EAGER, DEFAULT_MAX_DEPTH);
+    }
+
+    public JsValueAdapter(AsyncExtractor asyncExtractor, Mode mode, int maxDepth) {
+        this(asyncExtractor, mode, maxDepth, true);
+    }
+
+    /**
+     * @param asyncExtractor the extractor used to wait for promises
+     * @param mode how arrays, lists and maps are converted
+     * @param maxDepth the depth up to which nested values are converted eagerly; at least 1
+     * @param memoizeProperties whether the {@link HybridObject}s created by this adapter keep their adapted property
+     *                          values, instead of reading and adapting them again on every access
+     */
+    public JsValueAdapter(AsyncExtractor asyncExtractor, Mode mode, int maxDepth, boolean memoizeProperties) {
+        this(asyncExtractor, mode, maxDepth, memoizeProperties, null);
+    }
+
+    /**
+     * @param contextFactory the factory entering a context when a converted value is read after the script execution
+     *                       ended; if {@code null}, the global factory is used
+     */
+    public JsValueAdapter(
+            AsyncExtractor asyncExtractor,
+            Mode mode,
+            int maxDepth,
+            boolean memoizeProperties,
+            @Nullable BudgetContextFactory contextFactory) {
+        this.contextFactory = contextFactory;
         this.asyncExtractor = asyncExtractor;
+        this.mode = mode;
+        this.maxDepth = Math.max(1, maxDepth);
+        this.memoizeProperties = memoizeProperties;
+    }
+
+    /**
+     * @return {@code true} if the {@link HybridObject}s created by this adapter memoize their adapted property values
+     */
+    public boolean isMemoizingProperties() {
+        return memoizeProperties;
+    }
+
+    /**
+     * Make sure a context is entered before reading the values behind converted objects. The context of a running
+     * execution is used as is; otherwise a new execution is entered, with its own budget.
+     * @return the entered context, to pass to {@link #exitContext(Context)}, or {@code null} if a context was already
+     * current
+     */
+    @Nullable
+    Context enterContext() {
+        if (Context.getCurrentContext() != null) {
+            return null;
+        }
+        return contextFactory == null ? Context.enter() : contextFactory.enterExecution();
+    }
+
+    void exitContext(@Nullable Context context) {
+        if (context == null) {
+            return;
+        }
+        if (contextFactory == null) {
+            Context.exit();
+        } else {
+            contextFactory.exitExecution(context);
+        }
     }
 
     /**
@@ -56,37 +154,140 @@ public class JsValueAdapter {
      * @param jsValue the original JS value
      * @return the Java correspondent
      */
-    @SuppressWarnings("unchecked")
     public Object adapt(Object jsValue) {
-        if (jsValue == null || jsValue == Context.getUndefinedValue() || jsValue == ScriptableObject.NOT_FOUND) {
+        return adapt(jsValue, new IdentityHashMap<>(), 0);
+    }
+
+    /**
+     * Replace the external converters used by this adapter
+     * @param converters the converters, in order of priority
+     */
+    public void setConverters(@NotNull List<JsValueConverter> converters) {
+        dispatchTable.set(
+                new DispatchTable(Collections.unmodifiableList(new ArrayList<>(converters)), Collections.emptyMap()));
+    }
+
+    /**
+     * Convert a JS value nested in a graph being converted
+     * @param jsValue the original JS value
+     * @param adapted the objects of the graph converted so far, mapped to their Java correspondents
+     * @param depth the depth of the value in the graph
+     * @return the Java correspondent
+     */
+    @SuppressWarnings("unchecked")
+    Object adapt(Object jsValue, Map<Object, Object> adapted, int depth) {
+        if (jsValue == null || jsValue == ScriptableObject.NOT_FOUND) {
             return null;
         }
-        if (jsValue instanceof Wrapper) {
-            return adapt(((Wrapper) jsValue).unwrap());
+        Dispatch dispatch = getDispatch(jsValue);
+        switch (dispatch.kind) {
+            case UNDEFINED:
+                return null;
+            case CONVERTER:
+                return dispatch.converter.convert(jsValue);
+            case WRAPPER:
+                return adapt(((Wrapper) jsValue).unwrap(), adapted, depth);
+            case PROMISE:
+                return adapt(forceAsync(jsValue), adapted, depth);
+            case STRING:
+                // convert any string-like type to plain java strings
+                return jsValue.toString();
+            case NUMBER:
+                return convertNumber((Number) jsValue);
+            case KNOWN_CONVERSION:
+                return Context.jsToJava(jsValue, dispatch.target);
+            default:
+                break;
         }
-        if (asyncExtractor.isPromise(jsValue)) {
-            return adapt(forceAsync(jsValue));
+        if (adapted.containsKey(jsValue)) {
+            return adapted.get(jsValue);
         }
-        if (jsValue instanceof ScriptableObject) {
-            return extractScriptable((ScriptableObject) jsValue);
+        switch (dispatch.kind) {
+            case NATIVE_ARRAY:
+                return convertNativeArray((NativeArray) jsValue, adapted, depth);
+            case FUNCTION:
+                return callFunction((Function) jsValue, adapted, depth);
+            case SCRIPTABLE:
+                // plain objects are thenables if they or their prototypes define a then method
+                if (ScriptableObject.hasProperty((Scriptable) jsValue, AsyncExtractor.THEN_METHOD)) {
+                    return adapt(forceAsync(jsValue), adapted, depth);
+                }
+                HybridObject hybridObject = new HybridObject((ScriptableObject) jsValue, this, adapted, depth);
+                adapted.put(jsValue, hybridObject);
+                return hybridObject;
+            case MAP:
+                return convertMap((Map<Object, Object>) jsValue, adapted, depth);
+            case ITERABLE:
+                return convertIterable(jsValue, (Iterable<Object>) jsValue, adapted, depth);
+            case OBJECT_ARRAY:
+                return convertIterable(jsValue, Arrays.asList((Object[]) jsValue), adapted, depth);
+            default:
+                return jsValue;
+        }
+    }
+
+    private Dispatch getDispatch(Object jsValue) {
+        Class<?> type = jsValue.getClass();
+        while (true) {
+            DispatchTable table = dispatchTable.get();
+            Dispatch dispatch = table.dispatches.get(type);
+            if (dispatch != null) {
+                return dispatch;
+            }
+            dispatch = createDispatch(jsValue, table.converters);
+            // the table is replaced as a whole, so a dispatch computed with replaced converters is never published
+            if (dispatchTable.compareAndSet(table, table.with(type, dispatch))) {
+                return dispatch;
+            }
+        }
+    }
+
+    private Dispatch createDispatch(Object jsValue, List<JsValueConverter> converters) {
+        Class<?> type = jsValue.getClass();
+        for (JsValueConverter converter : converters) {
+            if (converter.handles(type)) {
+                return new Dispatch(Kind.CONVERTER, converter, null);
+            }
+        }
+        if (jsValue == Context.getUndefinedValue()) {
+            return new Dispatch(Kind.UNDEFINED, null, null);
+        }
+        if (jsValue instanceof Wrapper) {
+            return new Dispatch(Kind.WRAPPER, null, null);
+        }
+        if (jsValue instanceof AsyncContainer) {
+            return new Dispatch(Kind.PROMISE, null, null);
         }
         if (jsValue instanceof CharSequence) {
-            // convert any string-like type to plain java strings
-            return jsValue.toString();
+            return new Dispatch(Kind.STRING, null, null);
+        }
+        if (jsValue instanceof Number) {
+            return new Dispatch(Kind.NUMBER, null, null);
+        }
+        if (jsValue instanceof ScriptableObject) {
+            // the class names of Rhino's built-in objects are fixed, so they can be looked up once per class
+            Class<?> target = knownConversions.get(((ScriptableObject) jsValue).getClassName());
+            if (target != null) {
+                return new Dispatch(Kind.KNOWN_CONVERSION, null, target);
+            }
+            if (jsValue instanceof NativeArray) {
+                return new Dispatch(Kind.NATIVE_ARRAY, null, null);
+            }
+            if (jsValue instanceof Function) {
+                return new Dispatch(Kind.FUNCTION, null, null);
+            }
+            return new Dispatch(Kind.SCRIPTABLE, null, null);
         }
         if (jsValue instanceof Map) {
-            return convertMap((Map) jsValue);
+            return new Dispatch(Kind.MAP, null, null);
         }
         if (jsValue instanceof Iterable) {
-            return convertIterable((Iterable) jsValue);
-        }
-        if (jsValue instanceof Number) {
-            return convertNumber((Number) jsValue);
+            return new Dispatch(Kind.ITERABLE, null, null);
         }
         if (jsValue instanceof Object[]) {
-            return convertIterable(Arrays.asList((Object[]) jsValue));
+            return new Dispatch(Kind.OBJECT_ARRAY, null, null);
         }
-        return jsValue;
+        return new Dispatch(Kind.OTHER, null, null);
     }
 
     private Object convertNumber(Number numValue) {
@@ -107,60 +308,124 @@ public class JsValueAdapter {
         return x == Math.floor(x);
     }
 
+    private boolean isLazy(int depth) {
+        return mode == Mode.LAZY || depth >= maxDepth;
+    }
+
     private Object forceAsync(Object jsValue) {
         AsyncContainer asyncContainer = new AsyncContainer();
         asyncExtractor.extract(jsValue, asyncContainer.createCompletionCallback());
         return asyncContainer.getResult();
     }
 
-    private Object extractScriptable(ScriptableObject scriptableObject) {
-        Object obj = tryKnownConversion(scriptableObject);
-        if (obj != null) {
-            return obj;
-        }
-        if (scriptableObject instanceof NativeArray) {
-            return convertNativeArray((NativeArray) scriptableObject);
-        }
-        if (scriptableObject instanceof Function) {
-            return callFunction((Function) scriptableObject);
-        }
-        return new HybridObject(scriptableObject, this);
-    }
-
-    private Object callFunction(Function function) {
+    private Object callFunction(Function function, Map<Object, Object> adapted, int depth) {
         Object result = JsUtils.callFn(function, null, function, function, new Object[0]);
-        return adapt(result);
+        return adapt(result, adapted, depth);
     }
 
-    private Object[] convertNativeArray(NativeArray nativeArray) {
+    private Object convertNativeArray(NativeArray nativeArray, Map<Object, Object> adapted, int depth) {
         int length = (int) nativeArray.getLength();
+        if (isLazy(depth)) {
+            AdaptedList list =
+                    new AdaptedList(this, adapted, depth, length, index -> nativeArray.get(index, nativeArray));
+            adapted.put(nativeArray, list);
+            return list;
+        }
         Object[] objects = new Object[length];
+        adapted.put(nativeArray, objects);
         for (int i = 0; i < length; i++) {
             Object jsItem = nativeArray.get(i, nativeArray);
-            objects[i] = adapt(jsItem);
+            objects[i] = adapt(jsItem, adapted, depth + 1);
         }
         return objects;
     }
 
-    private Map<Object, Object> convertMap(Map<Object, Object> original) {
+    private Map<Object, Object> convertMap(Map<Object, Object> original, Map<Object, Object> adapted, int depth) {
+        if (isLazy(depth)) {
+            AdaptedMap map = new AdaptedMap(this, adapted, depth, original);
+            adapted.put(original, map);
+            return map;
+        }
         Map<Object, Object> map = new HashMap<Object, Object>();
+        adapted.put(original, map);
         for (Map.Entry<Object, Object> entry : original.entrySet()) {
-            map.put(entry.getKey(), adapt(entry.getValue()));
+            map.put(entry.getKey(), adapt(entry.getValue(), adapted, depth + 1));
         }
         return map;
     }
 
-    private List<Object> convertIterable(Iterable<Object> iterable) {
+    private List<Object> convertIterable(
+            Object original, Iterable<Object> iterable, Map<Object, Object> adapted, int depth) {
+        if (isLazy(depth)) {
+            List<Object> list;
+            if (iterable instanceof List && iterable instanceof RandomAccess) {
+                list = (List<Object>) iterable;
+            } else {
+                list = new ArrayList<>();
+                iterable.forEach(list::add);
+            }
+            AdaptedList adaptedList = new AdaptedList(this, adapted, depth, list.size(), list::get);
+            adapted.put(original, adaptedList);
+            return adaptedList;
+        }
         List<Object> objects = new ArrayList<Object>();
+        adapted.put(original, objects);
         for (Object obj : iterable) {
-            objects.add(adapt(obj));
+            objects.add(adapt(obj, adapted, depth + 1));
         }
         return objects;
     }
 
-    private static Object tryKnownConversion(ScriptableObject object) {
-        String className = object.getClassName();
-        Class<?> cls = knownConversions.get(className);
-        return (cls == null) ? null : Context.jsToJava(object, cls);
+    private enum Kind {
+        UNDEFINED,
+        CONVERTER,
+        WRAPPER,
+        PROMISE,
+        STRING,
+        NUMBER,
+        KNOWN_CONVERSION,
+        NATIVE_ARRAY,
+        FUNCTION,
+        SCRIPTABLE,
+        MAP,
+        ITERABLE,
+        OBJECT_ARRAY,
+        OTHER
+    }
+
+    /**
+     * How the values of a class are converted.
+     */
+    private static final class Dispatch {
+
+        private final Kind kind;
+        private final JsValueConverter converter;
+        private final Class<?> target;
+
+        private Dispatch(Kind kind, JsValueConverter converter, Class<?> target) {
+            this.kind = kind;
+            this.converter = converter;
+            this.target = target;
+        }
+    }
+
+    /**
+     * Immutable snapshot of the converters and of the dispatches determined with them.
+     */
+    private static final class DispatchTable {
+
+        private final List<JsValueConverter> converters;
+        private final Map<Class<?>, Dispatch> dispatches;
+
+        private DispatchTable(List<JsValueConverter> converters, Map<Class<?>, Dispatch> dispatches) {
+            this.converters = converters;
+            this.dispatches = dispatches;
+        }
+
+        private DispatchTable with(Class<?> type, Dispatch dispatch) {
+            Map<Class<?>, Dispatch> copy = new HashMap<>(dispatches);
+            copy.put(type, dispatch);
+            return new DispatchTable(converters, Collections.unmodifiableMap(copy));
+        }
     }
 }
@@ -35,6 +35,9 @@ import org.apache.sling.api.scripting.SlingScriptHelper;
 import org.apache.sling.scripting.core.ScriptNameAwareReader;
 import org.apache.sling.scripting.sightly.SightlyException;
 import org.apache.sling.scripting.sightly.js.impl.Utils;
+import org.apache.sling.scripting.sightly.js.impl.cache.ResolutionCache;
+import org.apache.sling.scripting.sightly.js.impl.cache.ResourceTypeHierarchy;
+import org.apache.sling.scripting.sightly.js.impl.cache.SourceStore;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -44,9 +47,39 @@ import org.jetbrains.annotations.Nullable;
 public class DependencyResolver {
 
     private final ResourceResolver scriptingResourceResolver;
+    private final ResolutionCache resolutionCache;
+    private final ResourceTypeHierarchy resourceTypeHierarchy;
+    private final SourceStore sourceStore;
 
     public DependencyResolver(@NotNull ResourceResolver scriptingResourceResolver) {
+        this(scriptingResourceResolver, null, null, null);
+    }
+
+    public DependencyResolver(
+            @NotNull ResourceResolver scriptingResourceResolver,
+            @Nullable ResolutionCache resolutionCache,
+            @Nullable ResourceTypeHierarchy resourceTypeHierarchy) {
+        this(scriptingResourceResolver, resolutionCache, resourceTypeHierarchy, null);
+    }
+
+    /**
+     * @param scriptingResourceResolver the resolver used to load the scripts
+     * @param resolutionCache the shared cache of dependency resolutions; if {@code null}, every dependency is resolved
+     * @param resourceTypeHierarchy the shared index of resource type hierarchies; if {@code null}, hierarchies are only
+     *                              indexed for the lifetime of this resolver
+     * @param sourceStore the shared store of decoded script sources; if {@code null}, scripts are always read from the
+     *                    repository
+     */
+    public DependencyResolver(
+            @NotNull ResourceResolver scriptingResourceResolver,
+            @Nullable ResolutionCache resolutionCache,
+            @Nullable ResourceTypeHierarchy resourceTypeHierarchy,
+            @Nullable SourceStore sourceStore) {
         this.scriptingResourceResolver = scriptingResourceResolver;
+        this.resolutionCache = resolutionCache;
+        this.resourceTypeHierarchy =
+                resourceTypeHierarchy == null ? new ResourceTypeHierarchy() : resourceTypeHierarchy;
+        this.sourceStore = sourceStore;
     }
 
     public @Nullable ScriptNameAwareReader resolve(Bindings bindings, String dependency) {
@@ -54,34 +87,70 @@ public class DependencyResolver {
             throw new SightlyException(
                     "Only JS scripts are allowed as dependencies. Invalid dependency: " + dependency);
         }
+        Resource scriptResource;
+        if (resolutionCache == null) {
+            scriptResource = locate(bindings, dependency);
+        } else {
+            String callerName = getCallerName(bindings);
+            String driverType = getDriverType(bindings);
+            String resolvedPath = resolutionCache.get(callerName, driverType, dependency);
+            if (ResolutionCache.NOT_FOUND.equals(resolvedPath)) {
+                throw new SightlyException(String.format("Unable to load script dependency %s.", dependency));
+            }
+            scriptResource = resolvedPath == null ? null : scriptingResourceResolver.getResource(resolvedPath);
+            if (scriptResource == null) {
+                scriptResource = locate(bindings, dependency);
+                resolutionCache.put(
+                        callerName, driverType, dependency, scriptResource == null ? null : scriptResource.getPath());
+            }
+        }
+        if (scriptResource == null) {
+            throw new SightlyException(String.format("Unable to load script dependency %s.", dependency));
+        }
+        ScriptNameAwareReader reader = open(scriptResource);
+        if (reader == null) {
+            throw new SightlyException(String.format("Unable to read script %s.", dependency));
+        }
+        return reader;
+    }
+
+    private @Nullable ScriptNameAwareReader open(Resource scriptResource) {
+        if (sourceStore != null) {
+            return sourceStore.open(scriptResource);
+        }
+        InputStream scriptStream = scriptResource.adaptTo(InputStream.class);
+        if (scriptStream == null) {
+            return null;
+        }
+        return new ScriptNameAwareReader(
+                new InputStreamReader(scriptStream, StandardCharsets.UTF_8), scriptResource.getPath());
+    }
+
+    private @Nullable Resource locate(Bindings bindings, String dependency) {
         // attempt to retrieve the dependency directly (as an absolute path or relative to the search paths)
         Resource scriptResource = scriptingResourceResolver.getResource(dependency);
         Resource caller = getCaller(bindings);
         if (caller != null) {
             Resource callerType = caller.getParent();
             if (scriptResource == null && callerType != null) {
-                SlingHttpServletRequest request = (SlingHttpServletRequest) bindings.get(SlingBindings.REQUEST);
-                String driverType = request.getResource().getResourceType();
-                Resource driver = scriptingResourceResolver.getResource(driverType);
+                String driverType = getDriverType(bindings);
+                Resource driver = driverType == null ? null : scriptingResourceResolver.getResource(driverType);
                 if (driver != null) {
                     Resource hierarchyResource = getHierarchyResource(callerType, driver);
-                    while (hierarchyResource != null && scriptResource == null) {
-                        if (dependency.startsWith("..")) {
-                            // relative path
-                            String absolutePath =
-                                    ResourceUtil.normalize(hierarchyResource.getPath() + "/" + dependency);
-                            if (StringUtils.isNotEmpty(absolutePath)) {
-                                scriptResource = scriptingResourceResolver.getResource(absolutePath);
-                            }
-                        } else {
-                            scriptResource = hierarchyResource.getChild(dependency);
-                        }
-                        if (scriptResource == null) {
-                            String nextType = hierarchyResource.getResourceSuperType();
-                            if (nextType != null) {
-                                hierarchyResource = scriptingResourceResolver.getResource(nextType);
+                    if (hierarchyResource != null) {
+                        for (String typePath :
+                                resourceTypeHierarchy.getHierarchy(scriptingResourceResolver, hierarchyResource)) {
+                            if (dependency.startsWith("..")) {
+                                // relative path
+                                String absolutePath = ResourceUtil.normalize(typePath + "/" + dependency);
+                                if (StringUtils.isNotEmpty(absolutePath)) {
+                                    scriptResource = scriptingResourceResolver.getResource(absolutePath);
+                                }
                             } else {
-                                hierarchyResource = null;
+                                scriptResource = scriptingResourceResolver.getResource(typePath + "/" + dependency);
+                            }
+                            if (scriptResource != null) {
+                                break;
                             }
                         }
                     }
@@ -100,15 +169,26 @@ public class DependencyResolver {
                 }
             }
         }
-        if (scriptResource == null) {
-            throw new SightlyException(String.format("Unable to load script dependency %s.", dependency));
+        return scriptResource;
+    }
+
+    private String getCallerName(Bindings bindings) {
+        String callerName = (String) bindings.get(ScriptEngine.FILENAME);
+        if (StringUtils.isEmpty(callerName)) {
+            SlingScriptHelper scriptHelper = Utils.getHelper(bindings);
+            if (scriptHelper != null) {
+                callerName = scriptHelper.getScript().getScriptResource().getPath();
+            }
         }
-        InputStream scriptStream = scriptResource.adaptTo(InputStream.class);
-        if (scriptStream == null) {
-            throw new SightlyException(String.format("Unable to read script %s.", dependency));
+        return callerName;
+    }
+
+    private String getDriverType(Bindings bindings) {
+        SlingHttpServletRequest request = (SlingHttpServletRequest) bindings.get(SlingBindings.REQUEST);
+        if (request != null && request.getResource() != null) {
+            return request.getResource().getResourceType();
         }
-        return new ScriptNameAwareReader(
-                new InputStreamReader(scriptStream, StandardCharsets.UTF_8), scriptResource.getPath());
+        return null;
     }
 
     private Resource getCaller(Bindings bindings) {
@@ -137,27 +217,13 @@ public class DependencyResolver {
         if (isResourceType(driver, caller)) {
             return driver;
         }
-        int callerOverlayIndex = 0;
-        int driverOverlayIndex = 0;
-        String callerRelativePath = null;
-        String driverRelativePath = null;
-        int spIndex = 0;
-        for (String sp : scriptingResourceResolver.getSearchPath()) {
-            if (caller.getPath().startsWith(sp)) {
-                callerRelativePath = caller.getPath().substring(sp.length());
-                callerOverlayIndex = spIndex;
-            }
-            if (driver.getPath().startsWith(sp)) {
-                driverRelativePath = driver.getPath().substring(sp.length());
-                driverOverlayIndex = spIndex;
-            }
-            if (callerRelativePath != null && driverRelativePath != null) {
-                break;
-            }
-            spIndex++;
-        }
-        if (callerRelativePath != null && callerRelativePath.equals(driverRelativePath)) {
-            if (callerOverlayIndex < driverOverlayIndex) {
+        String[] searchPath = scriptingResourceResolver.getSearchPath();
+        ResourceTypeHierarchy.Overlay callerOverlay = resourceTypeHierarchy.getOverlay(searchPath, caller.getPath());
+        ResourceTypeHierarchy.Overlay driverOverlay = resourceTypeHierarchy.getOverlay(searchPath, driver.getPath());
+        if (callerOverlay != null
+                && driverOverlay != null
+                && callerOverlay.getRelativePath().equals(driverOverlay.getRelativePath())) {
+            if (callerOverlay.getIndex() < driverOverlay.getIndex()) {
                 return caller;
             }
             return driver;
@@ -166,21 +232,6 @@ public class DependencyResolver {
     }
 
     private boolean isResourceType(@NotNull Resource resource, @NotNull Resource parent) {
-        if (parent.getPath().equals(resource.getPath())) {
-            return true;
-        }
-        String resourceSuperType = resource.getResourceSuperType();
-        while (resourceSuperType != null) {
-            Resource intermediateType = scriptingResourceResolver.getResource(resourceSuperType);
-            if (intermediateType != null) {
-                if (intermediateType.getPath().equals(parent.getPath())) {
-                    return true;
-                }
-                resourceSuperType = intermediateType.getResourceSuperType();
-            } else {
-                return false;
-            }
-        }
-        return false;
+        return resourceTypeHierarchy.isResourceType(scriptingResourceResolver, resource, parent);
     }
 }
@@ -26,11 +26,10 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
-import org.apache.sling.api.scripting.LazyBindings;
 import org.apache.sling.scripting.core.ScriptNameAwareReader;
 import org.apache.sling.scripting.sightly.SightlyException;
 import org.apache.sling.scripting.sightly.js.impl.JsEnvironment;
-import org.apache.sling.scripting.sightly.js.impl.Utils;
+import org.apache.sling.scripting.sightly.js.impl.LayeredBindings;
 import org.apache.sling.scripting.sightly.js.impl.async.AsyncContainer;
 import org.apache.sling.scripting.sightly.js.impl.loop.EventLoopInterop;
 import org.apache.sling.scripting.sightly.js.impl.rhino.JsUtils;
@@ -47,9 +46,9 @@ import org.mozilla.javascript.ScriptableObject;
  */
 public class UseFunction extends BaseFunction {
 
-    private final JsEnvironment jsEnvironment;
-    private final DependencyResolver dependencyResolver;
     private final Scriptable thisObj;
+    private JsEnvironment jsEnvironment;
+    private DependencyResolver dependencyResolver;
     private final Bindings globalBindings;
 
     public UseFunction(
@@ -63,8 +62,29 @@ public class UseFunction extends BaseFunction {
         this.thisObj = createThisBinding(arguments);
     }
 
+    /**
+     * Release the environment this function loads dependencies through. Called once the exports of a module shared
+     * across requests are cached, so that the module's closures do not keep the request's environment, dependency
+     * resolver and resource resolver alive. Subsequent calls load the dependencies through the environment of the
+     * request calling them.
+     */
+    public void detach() {
+        jsEnvironment = null;
+        dependencyResolver = null;
+    }
+
     @Override
     public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+        JsEnvironment environment = jsEnvironment;
+        DependencyResolver resolver = dependencyResolver;
+        if (environment == null) {
+            environment = JsEnvironment.getCurrent(cx);
+            if (environment == null) {
+                throw new SightlyException(
+                        "The use function of a cached module can only be called while a script is executed.");
+            }
+            resolver = environment.getDependencyResolver();
+        }
         Function function;
         List<String> depNames;
         if (args.length == 0) {
@@ -76,45 +96,55 @@ public class UseFunction extends BaseFunction {
             function = decodeCallback(args[1]);
             depNames = decodeDepNames(args[0]);
         }
-        return use(depNames, function, cx, scope);
+        return use(environment, resolver, depNames, function, cx, scope);
     }
 
-    private Object use(List<String> depNames, final Function callback, final Context cx, final Scriptable scope) {
+    private Object use(
+            JsEnvironment environment,
+            DependencyResolver resolver,
+            List<String> depNames,
+            final Function callback,
+            final Context cx,
+            final Scriptable scope) {
         final AsyncContainer asyncContainer = new AsyncContainer();
         if (depNames.isEmpty()) {
-            callImmediate(callback, asyncContainer, cx, scope);
-        } else {
-            final int[] counter = {depNames.size()};
-            final Object[] dependencies = new Object[depNames.size()];
-            for (int i = 0; i < depNames.size(); i++) {
-                final int dependencyPos = i;
-                String dependency = depNames.get(i);
-                ScriptNameAwareReader dependencyReader = dependencyResolver.resolve(globalBindings, dependency);
-                if (dependencyReader == null) {
-                    throw new SightlyException("Cannot locate script " + dependency);
-                }
-                Bindings bindings = new LazyBindings();
-                bindings.putAll(globalBindings);
-                bindings.put(ScriptEngine.FILENAME, dependencyReader.getScriptName());
-                jsEnvironment.runScript(dependencyReader, bindings, Utils.EMPTY_BINDINGS, arg -> {
-                    counter[0]--;
-                    dependencies[dependencyPos] = arg;
-                    if (counter[0] == 0) {
-                        Object result = JsUtils.callFn(callback, cx, scope, thisObj, dependencies);
-                        asyncContainer.complete(result);
-                    }
-                });
+            // the callback runs after the current code, as it always did; JsEnvironment.evaluate still unwraps the
+            // value once the event loop has run it
+            scheduleCallback(asyncContainer, callback, cx, scope, new Object[0]);
+            return asyncContainer;
+        }
+        final int[] counter = {depNames.size()};
+        final Object[] dependencies = new Object[depNames.size()];
+        for (int i = 0; i < depNames.size(); i++) {
+            final int dependencyPos = i;
+            String dependency = depNames.get(i);
+            ScriptNameAwareReader dependencyReader = resolver.resolve(globalBindings, dependency);
+            if (dependencyReader == null) {
+                throw new SightlyException("Cannot locate script " + dependency);
             }
+            String caller = (String) globalBindings.get(ScriptEngine.FILENAME);
+            if (caller != null) {
+                environment.recordDependency(caller, dependencyReader.getScriptName());
+            }
+            Bindings bindings = new LayeredBindings(globalBindings);
+            bindings.put(ScriptEngine.FILENAME, dependencyReader.getScriptName());
+            environment.runModule(caller, dependencyReader, bindings, arg -> {
+                counter[0]--;
+                dependencies[dependencyPos] = arg;
+                if (counter[0] == 0) {
+                    // dependencies loaded from the module registry or cache complete synchronously; the callback
+                    // still runs after the current code, as it does for dependencies loaded through the event loop
+                    scheduleCallback(asyncContainer, callback, cx, scope, dependencies);
+                }
+            });
         }
         return asyncContainer;
     }
 
-    private void callImmediate(
-            final Function callback, final AsyncContainer asyncContainer, final Context cx, final Scriptable scope) {
-        EventLoopInterop.schedule(cx, () -> {
-            Object value = JsUtils.callFn(callback, cx, scope, thisObj, new Object[0]);
-            asyncContainer.complete(value);
-        });
+    private void scheduleCallback(
+            AsyncContainer asyncContainer, Function callback, Context cx, Scriptable scope, Object[] dependencies) {
+        EventLoopInterop.schedule(
+                cx, () -> asyncContainer.complete(JsUtils.callFn(callback, cx, scope, thisObj, dependencies)));
     }
 
     private Function decodeCallback(Object obj) {
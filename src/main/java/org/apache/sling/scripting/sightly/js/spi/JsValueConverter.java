@@ -0,0 +1,48 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.spi;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.osgi.annotation.versioning.ConsumerType;
+
+/**
+ * Converts the values of specific types returned by Use-API scripts to the Java objects exposed to HTL, instead of the
+ * built-in conversions. Converters are registered as OSGi services; when several converters handle the same type, the
+ * one with the highest service ranking wins.
+ */
+@ConsumerType
+public interface JsValueConverter {
+
+    /**
+     * Check whether this converter handles the values of a type. The answer is cached per type, so it must only depend
+     * on the type.
+     * @param type the runtime class of a value, e.g. {@code org.mozilla.javascript.NativeDate} for JS dates
+     * @return {@code true} if {@link #convert(Object)} has to be used for the values of this type
+     */
+    boolean handles(@NotNull Class<?> type);
+
+    /**
+     * Convert a value
+     * @param value a value whose type is {@link #handles(Class) handled} by this converter
+     * @return the Java object exposed to HTL
+     */
+    @Nullable
+    Object convert(@NotNull Object value);
+}
@@ -16,6 +16,7 @@
  * specific language governing permissions and limitations
  * under the License.
  ******************************************************************************/
+'use cacheable';
 use(function(_) {
 
     function convertParams(paramMap) {
@@ -114,8 +115,9 @@ use(function(_) {
      * @name Request
      * @class The request class
      * @param {object} nativeRequest The nativeResource request object
+     * @param {object} [adapters] The Java-backed adapters; when provided, the parameters are converted lazily
      */
-    function Request(nativeRequest) {
+    function Request(nativeRequest, adapters) {
         /** @private */
         this.nativeRequest = nativeRequest;
 
@@ -125,7 +127,11 @@ use(function(_) {
          * @type {object.<string, string>}
          * @member
          */
-        this.parameters = convertParams(nativeRequest.getRequestParameterMap());
+        this.parameters = adapters ? adapters.parameters(nativeRequest)
+            : convertParams(nativeRequest.getRequestParameterMap());
+    }
+
+    Object.defineProperties(Request.prototype, {
 
         /**
          * The path info associated with this request
@@ -133,8 +139,15 @@ use(function(_) {
          * @type {RequestPathInfo}
          * @member
          */
-        this.pathInfo = new RequestPathInfo(nativeRequest.getRequestPathInfo());
-    }
+        pathInfo: {
+            get: function() {
+                if (!this._pathInfo) {
+                    this._pathInfo = new RequestPathInfo(this.nativeRequest.getRequestPathInfo());
+                }
+                return this._pathInfo;
+            }
+        }
+    });
 
     return Request;
 });
@@ -16,6 +16,7 @@
  * specific language governing permissions and limitations
  * under the License.
  ******************************************************************************/
+'use cacheable';
 use(['helper.js'], function(helper) {
        
     function getParentPath(path) {
@@ -27,7 +28,10 @@ use(['helper.js'], function(helper) {
     }
 
 
-    function getProperties(nativeResource) {
+    function getProperties(nativeResource, adapters) {
+        if (adapters) {
+            return adapters.properties(nativeResource);
+        }
         var valueMap = nativeResource.adaptTo(Packages.org.apache.sling.api.resource.ValueMap);
         return (valueMap) ? helper.mapToObject(valueMap) : {};
     }
@@ -37,8 +41,10 @@ use(['helper.js'], function(helper) {
      * @constructor
      * @class The Resource class
      * @param {object} nativeResource The nativeResource resource object
+     * @param {object} promise The promise library
+     * @param {object} [adapters] The Java-backed adapters; when provided, the properties are read lazily
      */
-    function Resource(nativeResource, promise) {
+    function Resource(nativeResource, promise, adapters) {
         /**
          * The absolute path for this resource
          * @name Resource~path
@@ -53,7 +59,7 @@ use(['helper.js'], function(helper) {
          * @member
          * @type {object.<string, object>}
          */
-        this.properties = getProperties(nativeResource);
+        this.properties = getProperties(nativeResource, adapters);
 
         /** @private */
         this.nativeResource = nativeResource;
@@ -62,6 +68,9 @@ use(['helper.js'], function(helper) {
             throw new Error('No promise library provided');
         }
         this._promise = promise;
+
+        /** @private */
+        this._adapters = adapters;
     }
 
     Resource.prototype = /** @lends Resource.prototype */ {
@@ -79,7 +88,7 @@ use(['helper.js'], function(helper) {
             }
             var resolver = this.nativeResource.getResourceResolver();
             var parent = resolver.resolve(parentPath);
-            return this._promise.success(new Resource(parent, this._promise));
+            return this._promise.success(new Resource(parent, this._promise, this._adapters));
         },
 
         /**
@@ -91,9 +100,10 @@ use(['helper.js'], function(helper) {
             var children = [];
             var it = resolver.listChildren(this.nativeResource);
             var promise = this._promise;
+            var adapters = this._adapters;
             while (it.hasNext()) {
                 var childNativeResource = it.next();
-                children.push(new Resource(childNativeResource, promise));
+                children.push(new Resource(childNativeResource, promise, adapters));
             }
             return this._promise.success(children);
         },
@@ -131,7 +141,7 @@ use(['helper.js'], function(helper) {
             if (res == null) {
                 return this._promise.failure(new Error('No resource found at path: ' + path));
             }
-            return this._promise.success(new Resource(res, this._promise));
+            return this._promise.success(new Resource(res, this._promise, this._adapters));
         }
     };
 
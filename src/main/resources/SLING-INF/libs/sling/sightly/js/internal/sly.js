@@ -18,17 +18,17 @@
  ******************************************************************************/
 use(['resource.js', 'request.js', 'promise.js'], function(Resource, Request, promiseFactory) {
 
-    return function(bindings, Q) {
+    return function(bindings, Q, adapters) {
         var promiseLib = promiseFactory(Q);
         var slyResource;
         var slyProperties;
         var slyRequest;
         if (bindings.containsKey('resource')) {
-            slyResource = new Resource(bindings.get('resource'), promiseLib);
+            slyResource = new Resource(bindings.get('resource'), promiseLib, adapters);
             slyProperties = slyResource.properties;
         }
         if (bindings.containsKey('request')) {
-            slyRequest = new Request(bindings.get('request'));
+            slyRequest = new Request(bindings.get('request'), adapters);
         }
 
         /**
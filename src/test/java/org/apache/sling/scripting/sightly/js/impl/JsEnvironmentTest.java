@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl;
+
+import javax.script.AbstractScriptEngine;
+import javax.script.Bindings;
+import javax.script.ScriptContext;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.SimpleBindings;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.sling.api.scripting.LazyBindings;
+import org.apache.sling.scripting.core.ScriptNameAwareReader;
+import org.apache.sling.scripting.sightly.js.impl.async.AsyncContainer;
+import org.apache.sling.scripting.sightly.js.impl.cache.ModuleCache;
+import org.apache.sling.scripting.sightly.js.impl.cache.ScriptCache;
+import org.apache.sling.scripting.sightly.js.impl.cache.ScriptCacheInvalidator;
+import org.apache.sling.scripting.sightly.js.impl.rhino.BudgetContextFactory;
+import org.apache.sling.scripting.sightly.js.impl.use.DependencyResolver;
+import org.junit.jupiter.api.Test;
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Function;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+import org.mozilla.javascript.Wrapper;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class JsEnvironmentTest {
+
+    private static final String CACHED_MODULE = "/libs/lib/cached.js";
+    private static final String CACHED_SOURCE = "'use cacheable';\n"
+            + "use(function () {\n"
+            + "    return {\n"
+            + "        later: function () { return use('dependency.js', function (dep) { return dep.name; }); },\n"
+            + "        after: function (callback) { setTimeout(callback, 10); }\n"
+            + "    };\n"
+            + "});";
+
+    private final ScriptEngine engine = new RhinoTestEngine();
+    private final ScriptCache scriptCache = new ScriptCache(10, ScriptCache.EvictionPolicy.LRU);
+    private final ScriptCacheInvalidator invalidator = new ScriptCacheInvalidator();
+    private final ModuleCache moduleCache = new ModuleCache(null);
+    private final BudgetContextFactory contextFactory = new BudgetContextFactory(0);
+
+    @Test
+    void testCachedExportsUseTheCallingRequest() {
+        DependencyResolver firstResolver = mock(DependencyResolver.class);
+        JsEnvironment first = environment(firstResolver);
+        first.initialize(contextFactory, 0);
+        try {
+            loadCachedModule(first);
+        } finally {
+            first.cleanup();
+        }
+
+        DependencyResolver secondResolver = mock(DependencyResolver.class);
+        when(secondResolver.resolve(any(Bindings.class), eq("dependency.js")))
+                .thenReturn(reader("/libs/lib/dependency.js", "use(function () { return { name: 'dependency' }; });"));
+        JsEnvironment second = environment(secondResolver);
+        second.initialize(contextFactory, 0);
+        try {
+            Scriptable exports = loadCachedModule(second);
+            Function later = (Function) ScriptableObject.getProperty(exports, "later");
+            Object[] result = new Object[1];
+            Context context = Context.getCurrentContext();
+            second.getEventLoop().execute(() -> result[0] = later.call(context, exports, exports, new Object[0]));
+
+            AsyncContainer container = (AsyncContainer) result[0];
+            assertTrue(container.isCompleted());
+            assertEquals("dependency", container.getResult());
+
+            Function after = (Function) ScriptableObject.getProperty(exports, "after");
+            List<Long> timeouts = new ArrayList<>();
+            BaseFunction callback = new BaseFunction() {
+                @Override
+                public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+                    timeouts.add(second.getEventLoop().getCurrentTime());
+                    return Context.getUndefinedValue();
+                }
+            };
+            second.getEventLoop().execute(() -> after.call(context, exports, exports, new Object[] {callback}));
+            assertEquals(1, timeouts.size());
+            assertTrue(timeouts.get(0) >= 10);
+        } finally {
+            second.cleanup();
+        }
+        verify(firstResolver, never()).resolve(any(Bindings.class), any(String.class));
+    }
+
+    private JsEnvironment environment(DependencyResolver resolver) {
+        return new JsEnvironment(engine, resolver, scriptCache, invalidator, null, moduleCache, null);
+    }
+
+    private Scriptable loadCachedModule(JsEnvironment environment) {
+        Object[] exports = new Object[1];
+        environment.runModule(
+                null, reader(CACHED_MODULE, CACHED_SOURCE), new LazyBindings(), value -> exports[0] = value);
+        return (Scriptable) exports[0];
+    }
+
+    private static ScriptNameAwareReader reader(String path, String source) {
+        return new ScriptNameAwareReader(new StringReader(source), path);
+    }
+
+    /**
+     * Evaluates scripts with the current Rhino context, exposing the engine scope bindings as global variables.
+     */
+    private static final class RhinoTestEngine extends AbstractScriptEngine {
+
+        @Override
+        public Object eval(Reader reader, ScriptContext context) {
+            Context cx = Context.getCurrentContext();
+            Scriptable scope = cx.initStandardObjects();
+            for (Map.Entry<String, Object> entry :
+                    context.getBindings(ScriptContext.ENGINE_SCOPE).entrySet()) {
+                ScriptableObject.putProperty(scope, entry.getKey(), Context.javaToJS(entry.getValue(), scope));
+            }
+            try {
+                Object result = cx.evaluateReader(scope, reader, (String) context.getAttribute(FILENAME), 1, null);
+                return result instanceof Wrapper ? ((Wrapper) result).unwrap() : result;
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public Object eval(String script, ScriptContext context) {
+            return eval(new StringReader(script), context);
+        }
+
+        @Override
+        public Bindings createBindings() {
+            return new SimpleBindings();
+        }
+
+        @Override
+        public ScriptEngineFactory getFactory() {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.api.scripting.LazyBindings;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LayeredBindingsTest {
+
+    @Test
+    void testLayerDoesNotModifyParent() {
+        LazyBindings parent = new LazyBindings();
+        parent.put("a", 1);
+        parent.put("b", 2);
+        LayeredBindings layer = new LayeredBindings(parent);
+        layer.put("a", 3);
+        layer.put("c", 4);
+        layer.remove("b");
+
+        assertEquals(3, layer.get("a"));
+        assertNull(layer.get("b"));
+        assertFalse(layer.containsKey("b"));
+        assertEquals(4, layer.get("c"));
+        assertEquals(2, layer.size());
+
+        assertEquals(1, parent.get("a"));
+        assertEquals(2, parent.get("b"));
+        assertFalse(parent.containsKey("c"));
+
+        layer.put("b", 5);
+        assertEquals(5, layer.get("b"));
+        assertEquals(3, layer.size());
+    }
+
+    @Test
+    void testSuppliersAreEvaluatedOnRead() {
+        AtomicInteger evaluations = new AtomicInteger();
+        LazyBindings parent = new LazyBindings();
+        parent.put("lazy", (LazyBindings.Supplier) () -> evaluations.incrementAndGet());
+        LayeredBindings layer = new LayeredBindings(new LayeredBindings(parent));
+        layer.put("other", true);
+
+        assertTrue(layer.containsKey("lazy"));
+        for (Map.Entry<String, Object> entry : layer.entrySet()) {
+            entry.getKey();
+        }
+        assertEquals(0, evaluations.get());
+        assertEquals(1, layer.get("lazy"));
+        assertEquals(1, evaluations.get());
+    }
+}
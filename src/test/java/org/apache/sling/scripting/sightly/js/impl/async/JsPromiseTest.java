@@ -0,0 +1,144 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.async;
+
+import org.apache.sling.scripting.sightly.js.impl.BudgetExceededException;
+import org.apache.sling.scripting.sightly.js.impl.loop.EventLoopInterop;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JsPromiseTest {
+
+    private Context context;
+    private Scriptable scope;
+
+    @BeforeEach
+    void setUp() {
+        context = Context.enter();
+        scope = context.initStandardObjects();
+    }
+
+    @AfterEach
+    void tearDown() {
+        EventLoopInterop.cleanupEventLoop(context);
+        Context.exit();
+    }
+
+    @Test
+    void testReactionsRunAsMicrotasks() {
+        run(
+                "var order = [];"
+                        + "promise.then(function (v) { order.push('then ' + v); return v + 1; })"
+                        + "  .then(function (v) { order.push('then ' + v); });"
+                        + "order.push('sync');",
+                JsPromise.resolved(context, 1));
+        assertEquals("sync,then 1,then 2", evaluate("order.join()"));
+    }
+
+    @Test
+    void testRejectionsPropagateToCatch() {
+        run(
+                "var caught;"
+                        + "promise.then(function () { throw 'error'; })"
+                        + "  .then(function () { caught = 'unexpected'; })"
+                        + "  .catch(function (e) { caught = e; });",
+                JsPromise.resolved(context, 1));
+        assertEquals("error", evaluate("caught"));
+    }
+
+    @Test
+    void testThenablesAreAdopted() {
+        JsPromise promise = new JsPromise();
+        run(
+                "var value;"
+                        + "promise.then(function (v) { value = v; });"
+                        + "var thenable = {then: function (resolve) { resolve('adopted'); }};",
+                promise);
+        EventLoopInterop.obtainEventLoop(context)
+                .execute(() -> promise.resolve(context, ScriptableObject.getProperty(scope, "thenable")));
+        assertTrue(promise.isSettled());
+        assertEquals("adopted", evaluate("value"));
+    }
+
+    @Test
+    void testThrowingThenablesAndHandlersReject() {
+        JsPromise promise = new JsPromise();
+        run(
+                "var reasons = [];"
+                        + "promise.catch(function (e) { reasons.push('thenable ' + e); });"
+                        + "var thenable = {then: function () { null.then; }};",
+                promise);
+        EventLoopInterop.obtainEventLoop(context)
+                .execute(() -> promise.resolve(context, ScriptableObject.getProperty(scope, "thenable")));
+        assertTrue(promise.isRejected());
+        run(
+                "promise.catch(function () { undefinedFunction(); })"
+                        + "  .catch(function (e) { reasons.push('handler ' + e); });",
+                promise);
+        assertEquals(
+                "thenable TypeError: Cannot read property \"then\" from null,"
+                        + "handler ReferenceError: \"undefinedFunction\" is not defined.",
+                evaluate("reasons.join()"));
+    }
+
+    @Test
+    void testHostExceptionsReject() {
+        JsPromise promise = JsPromise.resolved(context, 1);
+        ScriptableObject.putProperty(scope, "host", new BaseFunction() {
+            @Override
+            public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+                throw new IllegalStateException("host failure");
+            }
+        });
+        run("var caught; promise.then(host).catch(function (e) { caught = e; });", promise);
+        assertEquals("java.lang.IllegalStateException: host failure", evaluate("caught"));
+    }
+
+    @Test
+    void testExceededBudgetsAreNotCaught() {
+        JsPromise promise = JsPromise.resolved(context, 1);
+        ScriptableObject.putProperty(scope, "host", new BaseFunction() {
+            @Override
+            public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+                throw new BudgetExceededException("exceeded");
+            }
+        });
+        // the event loop stops, rethrowing the exceeded budget
+        assertThrows(BudgetExceededException.class, () -> run("promise.then(host);", promise));
+    }
+
+    private void run(String script, JsPromise promise) {
+        ScriptableObject.putProperty(scope, "promise", promise);
+        EventLoopInterop.obtainEventLoop(context)
+                .execute(() -> context.evaluateString(scope, script, "test.js", 1, null));
+    }
+
+    private String evaluate(String expression) {
+        return Context.toString(context.evaluateString(scope, expression, "test.js", 1, null));
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.cache;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.NativeObject;
+import org.mozilla.javascript.Scriptable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModuleCacheTest {
+
+    @Test
+    void testIsCacheable() {
+        ModuleCache moduleCache = new ModuleCache(new String[] {"/libs/lib/.*\\.js", "["});
+        assertTrue(moduleCache.isCacheable("/libs/lib/helper.js", "use(function () {});"));
+        assertTrue(moduleCache.isCacheable(
+                "/apps/lib/helper.js",
+                "/* license */\n// comment\n'use strict';\n\"use cacheable\";\nuse(function () {});"));
+        assertFalse(moduleCache.isCacheable("/apps/lib/helper.js", "use(function () {});\n'use cacheable';"));
+        assertFalse(moduleCache.isCacheable("/apps/lib/helper.js", "'use strict'; use(function () {});"));
+    }
+
+    @Test
+    void testExportsAreSealedAndVersioned() {
+        ModuleCache moduleCache = new ModuleCache(null);
+        NativeObject exports = new NativeObject();
+        assertSame(exports, moduleCache.put("/libs/lib/helper.js", "v1", exports));
+        assertTrue(exports.isSealed());
+        assertSame(exports, moduleCache.get("/libs/lib/helper.js", "v1"));
+        assertNull(moduleCache.get("/libs/lib/helper.js", "v2"));
+
+        moduleCache.invalidate(Collections.singleton("/libs/lib"));
+        assertEquals(0, moduleCache.size());
+    }
+
+    @Test
+    void testExportsAreDeepFrozen() {
+        Context context = Context.enter();
+        try {
+            Scriptable scope = context.initStandardObjects();
+            Object exports = context.evaluateString(
+                    scope,
+                    "function Ctor() { this.own = 1; }\n"
+                            + "Ctor.prototype = { method: function () { return 'm'; } };\n"
+                            + "Object.defineProperty(Ctor.prototype, 'value', { get: function () { return {}; } });\n"
+                            + "var exports = { list: [{ a: 1 }], Ctor: Ctor, math: Math }; exports",
+                    "module.js",
+                    1,
+                    null);
+            new ModuleCache(null).put("/libs/lib/module.js", "v1", exports);
+            scope.put("exports", scope, exports);
+            assertEquals(
+                    true,
+                    context.evaluateString(
+                            scope,
+                            "Object.isFrozen(exports) && Object.isFrozen(exports.list) && Object.isFrozen(exports.list[0])"
+                                    + " && Object.isFrozen(exports.Ctor) && Object.isFrozen(exports.Ctor.prototype)"
+                                    + " && Object.isFrozen(Object.getOwnPropertyDescriptor(exports.Ctor.prototype, 'value').get)",
+                            "test.js",
+                            1,
+                            null));
+            assertEquals(
+                    true,
+                    context.evaluateString(
+                            scope,
+                            "var instance = new exports.Ctor(); instance.other = 2;"
+                                    + " instance.own === 1 && instance.other === 2 && !Object.isFrozen(Math)",
+                            "test.js",
+                            1,
+                            null));
+        } finally {
+            Context.exit();
+        }
+    }
+}
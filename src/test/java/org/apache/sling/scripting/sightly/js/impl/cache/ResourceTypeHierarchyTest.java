@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.cache;
+
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ResourceTypeHierarchyTest {
+
+    @Test
+    void testOverlaysAreKeptPerSearchPath() {
+        ResourceTypeHierarchy hierarchy = new ResourceTypeHierarchy();
+        String path = "/libs/component/component.js";
+
+        ResourceTypeHierarchy.Overlay overlay = hierarchy.getOverlay(new String[] {"/apps/", "/libs/"}, path);
+        assertEquals(1, overlay.getIndex());
+        assertEquals("component/component.js", overlay.getRelativePath());
+
+        overlay = hierarchy.getOverlay(new String[] {"/libs/"}, path);
+        assertEquals(0, overlay.getIndex());
+        assertNull(hierarchy.getOverlay(new String[] {"/apps/"}, path));
+    }
+
+    @Test
+    void testInvalidatedOverlaysAreRecomputed() {
+        ResourceTypeHierarchy hierarchy = new ResourceTypeHierarchy();
+        String[] searchPath = {"/apps/", "/libs/"};
+        String path = "/libs/component/component.js";
+        assertEquals(1, hierarchy.getOverlay(searchPath, path).getIndex());
+
+        hierarchy.invalidate(Collections.singleton("/libs/component"));
+
+        assertEquals(1, hierarchy.getOverlay(searchPath, path).getIndex());
+        assertNull(hierarchy.getOverlay(new String[] {"/apps/"}, path));
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.cache;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.sling.api.resource.observation.ResourceChange;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScriptCacheInvalidatorTest {
+
+    @Test
+    void testDependentsAreInvalidated() {
+        ScriptCacheInvalidator invalidator = new ScriptCacheInvalidator();
+        Set<String> invalidated = new HashSet<>();
+        invalidator.register(invalidated::addAll);
+        invalidator.recordDependency("/apps/component/component.js", "/apps/lib/model.js");
+        invalidator.recordDependency("/apps/lib/model.js", "/libs/lib/helper.js");
+        invalidator.recordDependency("/apps/other/other.js", "/apps/lib/other.js");
+
+        invalidator.onChange(Collections.singletonList(
+                new ResourceChange(ResourceChange.ChangeType.CHANGED, "/libs/lib/helper.js/jcr:content", false)));
+
+        assertEquals(3, invalidated.size());
+        assertTrue(invalidated.contains("/libs/lib/helper.js/jcr:content"));
+        assertTrue(invalidated.contains("/apps/lib/model.js"));
+        assertTrue(invalidated.contains("/apps/component/component.js"));
+    }
+
+    @Test
+    void testDependenciesAreTrimmed() {
+        ScriptCacheInvalidator invalidator = new ScriptCacheInvalidator();
+        invalidator.recordDependency("/apps/component/component.js", "/apps/lib/model.js");
+        invalidator.recordDependency("/apps/other/other.js", "/apps/lib/model.js");
+        invalidator.recordDependency("/apps/other/other.js", "/apps/lib/helper.js");
+        assertEquals(2, invalidator.getDependencyCount());
+
+        invalidator.forgetDependencies("/apps/other/other.js");
+        assertEquals(1, invalidator.getDependencyCount());
+
+        invalidator.onChange(Collections.singletonList(
+                new ResourceChange(ResourceChange.ChangeType.CHANGED, "/apps/component/component.js", false)));
+        assertEquals(0, invalidator.getDependencyCount());
+    }
+
+    @Test
+    void testIsAffected() {
+        assertTrue(ScriptCacheInvalidator.isAffected("/apps/lib/model.js", "/apps/lib/model.js"));
+        assertTrue(ScriptCacheInvalidator.isAffected("/apps/lib/model.js/jcr:content", "/apps/lib/model.js"));
+        assertTrue(ScriptCacheInvalidator.isAffected("/apps/lib", "/apps/lib/model.js"));
+        assertFalse(ScriptCacheInvalidator.isAffected("/apps/lib/model", "/apps/lib/model.js"));
+        assertFalse(ScriptCacheInvalidator.isAffected("/apps/lib/model.js", "/apps/lib/other.js"));
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.cache;
+
+import javax.script.CompiledScript;
+import javax.script.ScriptException;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+
+class ScriptCacheTest {
+
+    private static final String PATH = "/apps/test/test.js";
+
+    @Test
+    void testSameFingerprintIsCompiledOnce() throws ScriptException {
+        ScriptCache cache = new ScriptCache(10, ScriptCache.EvictionPolicy.LRU);
+        AtomicInteger compilations = new AtomicInteger();
+        ScriptCache.ScriptCompiler compiler = () -> {
+            compilations.incrementAndGet();
+            return mock(CompiledScript.class);
+        };
+        CompiledScript first = cache.getCompiledScript(PATH, "a", compiler);
+        assertSame(first, cache.getCompiledScript(PATH, "a", compiler));
+        assertEquals(1, compilations.get());
+        assertNotSame(first, cache.getCompiledScript(PATH, "b", compiler));
+        assertEquals(2, compilations.get());
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    void testConcurrentRequestsShareCompilation() throws Exception {
+        ScriptCache cache = new ScriptCache(10, ScriptCache.EvictionPolicy.LRU);
+        AtomicInteger compilations = new AtomicInteger();
+        CountDownLatch compiling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompiledScript compiledScript = mock(CompiledScript.class);
+        ScriptCache.ScriptCompiler compiler = () -> {
+            compilations.incrementAndGet();
+            compiling.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return compiledScript;
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<CompiledScript>> results = new ArrayList<>();
+            results.add(executor.submit(() -> cache.getCompiledScript(PATH, "a", compiler)));
+            assertTrue(compiling.await(5, TimeUnit.SECONDS));
+            for (int i = 0; i < 3; i++) {
+                results.add(executor.submit(() -> cache.getCompiledScript(PATH, "a", compiler)));
+            }
+            release.countDown();
+            for (Future<CompiledScript> result : results) {
+                assertSame(compiledScript, result.get(5, TimeUnit.SECONDS));
+            }
+            assertEquals(1, compilations.get());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void testFailedCompilationIsNotCached() throws ScriptException {
+        ScriptCache cache = new ScriptCache(10, ScriptCache.EvictionPolicy.LRU);
+        assertThrows(
+                ScriptException.class,
+                () -> cache.getCompiledScript(PATH, "a", () -> {
+                    throw new ScriptException("broken");
+                }));
+        assertEquals(0, cache.size());
+        CompiledScript compiledScript = mock(CompiledScript.class);
+        assertSame(compiledScript, cache.getCompiledScript(PATH, "a", () -> compiledScript));
+    }
+
+    @Test
+    void testEviction() throws ScriptException {
+        ScriptCache lru = new ScriptCache(2, ScriptCache.EvictionPolicy.LRU);
+        ScriptCache fifo = new ScriptCache(2, ScriptCache.EvictionPolicy.FIFO);
+        for (ScriptCache cache : new ScriptCache[] {lru, fifo}) {
+            cache.getCompiledScript("/a.js", "a", () -> mock(CompiledScript.class));
+            cache.getCompiledScript("/b.js", "b", () -> mock(CompiledScript.class));
+            cache.getCompiledScript("/a.js", "a", () -> mock(CompiledScript.class));
+            cache.getCompiledScript("/c.js", "c", () -> mock(CompiledScript.class));
+            assertEquals(2, cache.size());
+        }
+        AtomicInteger compilations = new AtomicInteger();
+        ScriptCache.ScriptCompiler compiler = () -> {
+            compilations.incrementAndGet();
+            return mock(CompiledScript.class);
+        };
+        // LRU keeps /a.js, since it was used after /b.js
+        lru.getCompiledScript("/a.js", "a", compiler);
+        assertEquals(0, compilations.get());
+        // FIFO evicted /a.js, since it was compiled first
+        fifo.getCompiledScript("/a.js", "a", compiler);
+        assertEquals(1, compilations.get());
+    }
+
+    @Test
+    void testEvictionListener() throws ScriptException {
+        List<String> evicted = new ArrayList<>();
+        ScriptCache cache = new ScriptCache(2, ScriptCache.EvictionPolicy.LRU, evicted::add);
+        cache.getCompiledScript("/a.js", "a", () -> mock(CompiledScript.class));
+        cache.getCompiledScript("/b.js", "b", () -> mock(CompiledScript.class));
+        cache.invalidate(Collections.singleton("/b.js"));
+        cache.getCompiledScript("/c.js", "c", () -> mock(CompiledScript.class));
+        cache.getCompiledScript("/d.js", "d", () -> mock(CompiledScript.class));
+        assertEquals(Collections.singletonList("/a.js"), evicted);
+    }
+
+    @Test
+    void testDisabledCache() throws ScriptException {
+        ScriptCache cache = new ScriptCache(0, ScriptCache.EvictionPolicy.LRU);
+        assertNotSame(
+                cache.getCompiledScript(PATH, "a", () -> mock(CompiledScript.class)),
+                cache.getCompiledScript(PATH, "a", () -> mock(CompiledScript.class)));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void testFingerprint() {
+        assertEquals(ScriptCache.fingerprint("use(function () {});"), ScriptCache.fingerprint("use(function () {});"));
+        assertTrue(!ScriptCache.fingerprint("a").equals(ScriptCache.fingerprint("b")));
+        assertEquals(64, ScriptCache.fingerprint("").length());
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.cache;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+
+import org.apache.sling.api.resource.Resource;
+import org.apache.sling.api.resource.ResourceMetadata;
+import org.apache.sling.scripting.core.ScriptNameAwareReader;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class SourceStoreTest {
+
+    private static final String PATH = "/apps/test/test.js";
+    private static final String SOURCE = "use(function () { return 'ünïcödé'; });";
+
+    @Test
+    void testSourceIsStoredOnFirstRead() throws IOException {
+        SourceStore sourceStore = new SourceStore(10, false);
+        Resource resource = mockResource(1L);
+        try (Reader reader = sourceStore.open(resource)) {
+            assertNull(sourceStore.get(PATH));
+            assertEquals(SOURCE, read(reader));
+        }
+        ScriptSource source = sourceStore.get(PATH);
+        assertNotNull(source);
+        assertEquals(ScriptCache.fingerprint(SOURCE), source.getFingerprint());
+        try (Reader reader = sourceStore.open(resource)) {
+            assertEquals(SOURCE, read(reader));
+        }
+        verify(resource, times(1)).adaptTo(InputStream.class);
+    }
+
+    @Test
+    void testModifiedScriptIsReadAgain() throws IOException {
+        SourceStore sourceStore = new SourceStore(10, true);
+        try (Reader reader = sourceStore.open(mockResource(1L))) {
+            assertEquals(SOURCE, read(reader));
+        }
+        assertEquals(SOURCE, sourceStore.get(PATH).getText());
+        Resource modified = mockResource(2L);
+        try (Reader reader = sourceStore.open(modified)) {
+            read(reader);
+        }
+        verify(modified).adaptTo(InputStream.class);
+        assertEquals(2L, sourceStore.get(PATH).getVersion());
+
+        sourceStore.invalidate(Collections.singleton("/apps/test"));
+        assertEquals(0, sourceStore.size());
+    }
+
+    @Test
+    void testSourceOfAReaderIsTheOpenedVersion() throws IOException {
+        SourceStore sourceStore = new SourceStore(10, false);
+        try (Reader reader = sourceStore.open(mockResource(1L))) {
+            read(reader);
+        }
+        Resource modified = mockResource(2L, "use(function () { return 'modified'; });");
+        ScriptNameAwareReader reader = sourceStore.open(modified);
+        assertNotNull(reader);
+        ScriptSource source = sourceStore.getSource(reader);
+        assertEquals(2L, source.getVersion());
+        assertEquals("use(function () { return 'modified'; });", source.getText());
+        assertSame(source, sourceStore.get(PATH));
+        assertNull(sourceStore.getSource(reader));
+    }
+
+    private String read(Reader reader) throws IOException {
+        StringBuilder text = new StringBuilder();
+        char[] buffer = new char[64];
+        int read;
+        while ((read = reader.read(buffer)) != -1) {
+            text.append(buffer, 0, read);
+        }
+        return text.toString();
+    }
+
+    private Resource mockResource(long modificationTime) {
+        return mockResource(modificationTime, SOURCE);
+    }
+
+    private Resource mockResource(long modificationTime, String text) {
+        Resource resource = mock(Resource.class);
+        ResourceMetadata metadata = new ResourceMetadata();
+        metadata.setModificationTime(modificationTime);
+        when(resource.getPath()).thenReturn(PATH);
+        when(resource.getResourceMetadata()).thenReturn(metadata);
+        when(resource.adaptTo(InputStream.class))
+                .thenAnswer(invocation -> new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
+        return resource;
+    }
+}
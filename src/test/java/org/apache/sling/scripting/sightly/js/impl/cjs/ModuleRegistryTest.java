@@ -0,0 +1,70 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.cjs;
+
+import org.apache.sling.scripting.sightly.SightlyException;
+import org.apache.sling.scripting.sightly.js.impl.async.AsyncContainer;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModuleRegistryTest {
+
+    @Test
+    void testModulesAreRegisteredOnce() {
+        ModuleRegistry registry = new ModuleRegistry();
+        assertNull(registry.get("/apps/lib/a.js"));
+        AsyncContainer exports = registry.register("/apps/lib/a.js");
+        assertSame(exports, registry.get("/apps/lib/a.js"));
+        registry.discard("/apps/lib/a.js");
+        assertNull(registry.get("/apps/lib/a.js"));
+
+        exports = registry.register("/apps/lib/a.js");
+        exports.complete("exports");
+        registry.discard("/apps/lib/a.js");
+        assertSame(exports, registry.get("/apps/lib/a.js"));
+    }
+
+    @Test
+    void testCircularDependencyIsDetected() {
+        ModuleRegistry registry = new ModuleRegistry();
+        registry.register("/apps/lib/a.js");
+        registry.await("/apps/component/component.js", "/apps/lib/a.js");
+        registry.register("/apps/lib/b.js");
+        registry.await("/apps/lib/a.js", "/apps/lib/b.js");
+        SightlyException exception =
+                assertThrows(SightlyException.class, () -> registry.await("/apps/lib/b.js", "/apps/lib/a.js"));
+        assertTrue(exception.getMessage().contains("/apps/lib/b.js -> /apps/lib/a.js -> /apps/lib/b.js"));
+        assertThrows(SightlyException.class, () -> registry.await("/apps/lib/a.js", "/apps/lib/a.js"));
+    }
+
+    @Test
+    void testLoadedDependencyDoesNotBlock() {
+        ModuleRegistry registry = new ModuleRegistry();
+        registry.register("/apps/lib/a.js");
+        AsyncContainer b = registry.register("/apps/lib/b.js");
+        registry.await("/apps/lib/a.js", "/apps/lib/b.js");
+        b.complete("exports");
+        assertDoesNotThrow(() -> registry.await("/apps/lib/b.js", "/apps/lib/a.js"));
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.jsapi;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LazyMapObjectTest {
+
+    private Context context;
+    private Scriptable scope;
+    private Map<String, Integer> reads;
+
+    @BeforeEach
+    void setUp() {
+        context = Context.enter();
+        scope = context.initStandardObjects();
+        reads = new HashMap<>();
+    }
+
+    @AfterEach
+    void tearDown() {
+        Context.exit();
+    }
+
+    @Test
+    void testEntriesAreReadOnAccessOnly() {
+        LazyMapObject object = create();
+        assertEquals("Title", ScriptableObject.getProperty(object, "jcr:title"));
+        assertEquals("Title", ScriptableObject.getProperty(object, "jcr:title"));
+        assertEquals(1, reads.get("jcr:title"));
+        assertFalse(reads.containsKey("count"));
+        assertEquals(Scriptable.NOT_FOUND, ScriptableObject.getProperty(object, "missing"));
+    }
+
+    @Test
+    void testScriptView() {
+        ScriptableObject.putProperty(scope, "props", create());
+        assertEquals("jcr:title,count", eval("Object.keys(props).join()"));
+        assertEquals("{\"jcr:title\":\"Title\",\"count\":3}", eval("JSON.stringify(props)"));
+        assertEquals(true, eval("'count' in props && props.hasOwnProperty('count')"));
+        assertEquals("Other", eval("props['jcr:title'] = 'Other'; props['jcr:title']"));
+        assertEquals(false, eval("delete props.count; 'count' in props"));
+    }
+
+    @Test
+    void testDeletedEntriesAreNotEnumerated() {
+        LazyMapObject object = create();
+        object.delete("count");
+        assertFalse(object.has("count", object));
+        assertArrayEquals(new Object[] {"jcr:title"}, object.getIds());
+        object.put("count", object, 4);
+        assertTrue(object.has("count", object));
+        assertEquals(4, object.get("count", object));
+    }
+
+    private LazyMapObject create() {
+        Map<String, Object> map = new LinkedHashMap<String, Object>() {
+            @Override
+            public Object get(Object key) {
+                reads.merge((String) key, 1, Integer::sum);
+                return super.get(key);
+            }
+        };
+        map.put("jcr:title", "Title");
+        map.put("count", 3);
+        return new LazyMapObject(scope, map);
+    }
+
+    private Object eval(String source) {
+        return context.evaluateString(scope, source, "test.js", 1, null);
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.jsapi;
+
+import java.util.Collections;
+
+import org.apache.sling.api.SlingHttpServletRequest;
+import org.apache.sling.api.request.RequestParameter;
+import org.apache.sling.api.request.RequestParameterMap;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.EvaluatorException;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class NativeAdaptersTest {
+
+    private Context context;
+    private Scriptable scope;
+
+    @BeforeEach
+    void setUp() {
+        context = Context.enter();
+        scope = context.initStandardObjects();
+        ScriptableObject.putProperty(scope, "adapters", NativeAdapters.create(scope));
+    }
+
+    @AfterEach
+    void tearDown() {
+        Context.exit();
+    }
+
+    @Test
+    void testParametersAreConvertedOnAccess() {
+        RequestParameter first = parameter("a");
+        RequestParameter second = parameter("b");
+        RequestParameterMap parameterMap = mock(RequestParameterMap.class);
+        when(parameterMap.containsKey("q")).thenReturn(true);
+        when(parameterMap.get("q")).thenReturn(new RequestParameter[] {first, second});
+        when(parameterMap.keySet()).thenReturn(Collections.singleton("q"));
+        SlingHttpServletRequest request = mock(SlingHttpServletRequest.class);
+        when(request.getRequestParameterMap()).thenReturn(parameterMap);
+        ScriptableObject.putProperty(scope, "request", Context.javaToJS(request, scope));
+
+        assertEquals("a|b", eval("var params = adapters.parameters(request); params.q.join('|')"));
+        assertEquals(2.0, ((Number) eval("params.q.length")).doubleValue());
+        assertEquals(true, eval("params.missing === undefined"));
+        assertEquals("q", eval("Object.keys(params).join()"));
+        verify(first, times(1)).getString();
+    }
+
+    @Test
+    void testMissingObjectsGiveEmptyObjects() {
+        assertEquals(0.0, ((Number) eval("Object.keys(adapters.properties(null)).length")).doubleValue());
+        assertEquals(0.0, ((Number) eval("Object.keys(adapters.parameters()).length")).doubleValue());
+    }
+
+    @Test
+    void testAdaptersAreSealedFunctions() {
+        assertEquals(0.0, ((Number) eval("Object.keys(adapters.properties.call(null, null)).length")).doubleValue());
+        assertThrows(EvaluatorException.class, () -> eval("adapters.properties.x = 1"));
+        assertThrows(EvaluatorException.class, () -> eval("adapters.other = 1"));
+        assertEquals(true, eval("adapters.properties.x === undefined"));
+    }
+
+    private RequestParameter parameter(String value) {
+        RequestParameter parameter = mock(RequestParameter.class);
+        when(parameter.getString()).thenReturn(value);
+        return parameter;
+    }
+
+    private Object eval(String source) {
+        return context.evaluateString(scope, source, "test.js", 1, null);
+    }
+}
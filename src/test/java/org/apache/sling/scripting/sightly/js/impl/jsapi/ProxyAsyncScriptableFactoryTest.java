@@ -0,0 +1,123 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.jsapi;
+
+import javax.script.Bindings;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.sling.api.resource.ResourceResolver;
+import org.apache.sling.api.scripting.SlingBindings;
+import org.apache.sling.scripting.sightly.SightlyException;
+import org.apache.sling.scripting.sightly.js.impl.JsEnvironment;
+import org.apache.sling.scripting.sightly.js.impl.async.AsyncExtractor;
+import org.apache.sling.scripting.sightly.js.impl.rhino.HybridObject;
+import org.apache.sling.scripting.sightly.js.impl.rhino.JsValueAdapter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class ProxyAsyncScriptableFactoryTest {
+
+    @Mock
+    private SlyBindingsValuesProvider slyBindingsValuesProvider;
+
+    @Mock
+    private ResourceResolver resolver;
+
+    @Mock
+    private JsEnvironment jsEnvironment;
+
+    @InjectMocks
+    private ProxyAsyncScriptableFactory factory;
+
+    private Context context;
+    private Scriptable scope;
+    private Bindings bindings;
+
+    @BeforeEach
+    void setUp() {
+        context = Context.enter();
+        scope = context.initStandardObjects();
+        bindings = new SlingBindings();
+        Map<String, String> scriptPaths = new LinkedHashMap<>();
+        scriptPaths.put("sightly", "/libs/sightly/js/internal/sly.js");
+        scriptPaths.put("other", "/libs/other/other.js");
+        when(slyBindingsValuesProvider.getScriptPaths()).thenReturn(scriptPaths);
+    }
+
+    @AfterEach
+    void tearDown() {
+        Context.exit();
+    }
+
+    @Test
+    void testNamespacesAreCreatedOnFirstAccess() {
+        when(slyBindingsValuesProvider.createNamespace(any(Bindings.class), eq("sightly")))
+                .thenReturn(namespace("name", "sightly"));
+        factory.registerProxies(resolver, jsEnvironment, bindings);
+        verify(slyBindingsValuesProvider, never()).createNamespace(any(Bindings.class), any(String.class));
+
+        Scriptable sightly = (Scriptable) bindings.get("sightly");
+        assertEquals("sightly", sightly.get("name", sightly));
+        assertEquals("sightly", sightly.get("name", sightly));
+
+        verify(slyBindingsValuesProvider, times(1)).createNamespace(any(Bindings.class), eq("sightly"));
+        verify(slyBindingsValuesProvider, never()).createNamespace(any(Bindings.class), eq("other"));
+    }
+
+    @Test
+    void testCircularNamespacesFail() {
+        when(slyBindingsValuesProvider.createNamespace(any(Bindings.class), any(String.class)))
+                .thenAnswer(invocation -> {
+                    Bindings namespaceBindings = invocation.getArgument(0);
+                    String other = "sightly".equals(invocation.getArgument(1)) ? "other" : "sightly";
+                    namespaceBindings.get(other);
+                    return namespace("name", invocation.getArgument(1));
+                });
+        factory.registerProxies(resolver, jsEnvironment, bindings);
+
+        Scriptable sightly = (Scriptable) bindings.get("sightly");
+        assertThrows(SightlyException.class, () -> sightly.get("name", sightly));
+    }
+
+    private HybridObject namespace(String name, Object value) {
+        Scriptable object = context.newObject(scope);
+        ScriptableObject.putProperty(object, name, value);
+        return new HybridObject(object, new JsValueAdapter(new AsyncExtractor()));
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.jsapi;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.scripting.sightly.js.impl.loop.EventLoop;
+import org.apache.sling.scripting.sightly.js.impl.loop.EventLoopInterop;
+import org.junit.jupiter.api.Test;
+import org.mozilla.javascript.BaseFunction;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QSchedulerTest {
+
+    @Test
+    void testPendingTickOnDiscardedLoop() {
+        QScheduler scheduler = new QScheduler();
+        AtomicInteger flushes = new AtomicInteger();
+        BaseFunction flush = new BaseFunction() {
+            @Override
+            public Object call(Context cx, Scriptable scope, Scriptable thisObj, Object[] args) {
+                flushes.incrementAndGet();
+                return Context.getUndefinedValue();
+            }
+        };
+        Context context = Context.enter();
+        try {
+            EventLoop eventLoop = EventLoopInterop.obtainEventLoop(context);
+            eventLoop.execute(() -> scheduler.call(context, null, null, new Object[] {flush}));
+            assertEquals(1, flushes.get());
+            assertTrue(scheduler.isUsable(null));
+
+            // the request fails before its event loop ran the tick
+            assertThrows(
+                    IllegalStateException.class,
+                    () -> eventLoop.execute(() -> {
+                        scheduler.call(context, null, null, new Object[] {flush});
+                        assertTrue(scheduler.isUsable(eventLoop));
+                        throw new IllegalStateException();
+                    }));
+            assertEquals(1, flushes.get());
+            EventLoopInterop.cleanupEventLoop(context);
+            assertFalse(scheduler.isUsable(EventLoopInterop.obtainEventLoop(context)));
+        } finally {
+            EventLoopInterop.cleanupEventLoop(context);
+            Context.exit();
+        }
+    }
+}
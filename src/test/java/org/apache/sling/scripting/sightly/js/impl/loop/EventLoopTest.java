@@ -0,0 +1,147 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.loop;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.sling.scripting.sightly.js.impl.BudgetExceededException;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EventLoopTest {
+
+    @Test
+    void testTasksRunInVirtualTimeOrder() {
+        EventLoop eventLoop = new EventLoop();
+        List<String> runs = new ArrayList<>();
+        eventLoop.execute(() -> {
+            eventLoop.schedule(new Task(() -> runs.add("timeout 100 at " + eventLoop.getCurrentTime())), 100);
+            eventLoop.schedule(new Task(() -> runs.add("timeout 10 at " + eventLoop.getCurrentTime())), 10);
+            eventLoop.schedule(new Task(() -> {
+                runs.add("immediate");
+                eventLoop.schedule(new Task(() -> runs.add("nested immediate")));
+            }));
+        });
+        assertEquals(Arrays.asList("immediate", "nested immediate", "timeout 10 at 10", "timeout 100 at 100"), runs);
+    }
+
+    @Test
+    void testImmediateChainsDoNotStarveTimers() {
+        EventLoop eventLoop = new EventLoop(1000);
+        List<String> runs = new ArrayList<>();
+        Runnable[] immediate = new Runnable[1];
+        immediate[0] = () -> {
+            if (!runs.contains("timeout")) {
+                runs.add("immediate");
+                eventLoop.schedule(new Task(immediate[0]));
+            }
+        };
+        eventLoop.execute(() -> {
+            eventLoop.schedule(new Task(() -> runs.add("timeout")), 5);
+            eventLoop.schedule(new Task(immediate[0]));
+        });
+        assertEquals(
+                Arrays.asList("immediate", "immediate", "immediate", "immediate", "immediate", "immediate", "timeout"),
+                runs);
+    }
+
+    @Test
+    void testExceededBudgetsStopTheLoop() {
+        EventLoop eventLoop = new EventLoop();
+        List<String> runs = new ArrayList<>();
+        assertThrows(
+                BudgetExceededException.class,
+                () -> eventLoop.execute(() -> {
+                    eventLoop.schedule(new Task(() -> {
+                        throw new IllegalStateException(new BudgetExceededException("budget exceeded"));
+                    }));
+                    eventLoop.schedule(new Task(() -> runs.add("immediate")));
+                    eventLoop.schedule(new Task(() -> runs.add("timeout")), 10);
+                    eventLoop.queueMicrotask(() -> runs.add("microtask"));
+                }));
+        assertEquals(Collections.singletonList("microtask"), runs);
+
+        eventLoop.execute(() -> {});
+        assertEquals(Collections.singletonList("microtask"), runs);
+    }
+
+    @Test
+    void testTimerChainsReuseTheirSlots() {
+        EventLoop eventLoop = new EventLoop();
+        List<Long> runs = new ArrayList<>();
+        Runnable[] tick = new Runnable[1];
+        tick[0] = () -> {
+            runs.add(eventLoop.getCurrentTime());
+            if (runs.size() < 3) {
+                eventLoop.schedule(new Task(tick[0]), 10);
+            }
+        };
+        eventLoop.execute(() -> eventLoop.schedule(new Task(tick[0]), 10));
+        assertEquals(Arrays.asList(10L, 20L, 30L), runs);
+    }
+
+    @Test
+    void testCancelledTasksDoNotRun() {
+        EventLoop eventLoop = new EventLoop();
+        List<String> runs = new ArrayList<>();
+        eventLoop.execute(() -> {
+            Task cancelled = new Task(() -> runs.add("cancelled"));
+            eventLoop.schedule(cancelled, 1000);
+            eventLoop.schedule(new Task(() -> runs.add("timeout")), 5);
+            cancelled.deactivate();
+        });
+        assertEquals(Arrays.asList("timeout"), runs);
+        assertEquals(5, eventLoop.getCurrentTime());
+    }
+
+    @Test
+    void testMicrotasksRunBeforeNextMacrotask() {
+        EventLoop eventLoop = new EventLoop();
+        List<String> runs = new ArrayList<>();
+        eventLoop.execute(() -> {
+            eventLoop.schedule(new Task(() -> {
+                runs.add("macrotask 1");
+                eventLoop.queueMicrotask(() -> runs.add("microtask 2"));
+            }));
+            eventLoop.schedule(new Task(() -> runs.add("macrotask 2")));
+            eventLoop.queueMicrotask(() -> {
+                runs.add("microtask 1");
+                eventLoop.queueMicrotask(() -> runs.add("nested microtask"));
+            });
+        });
+        assertEquals(
+                Arrays.asList("microtask 1", "nested microtask", "macrotask 1", "microtask 2", "macrotask 2"), runs);
+        assertEquals(2, eventLoop.getTaskCount());
+        assertEquals(3, eventLoop.getMicrotaskCount());
+        assertEquals(3, eventLoop.getHighWaterMark());
+    }
+
+    @Test
+    void testTaskBudget() {
+        EventLoop eventLoop = new EventLoop(100);
+        Runnable[] endless = new Runnable[1];
+        endless[0] = () -> eventLoop.queueMicrotask(endless[0]);
+        assertThrows(BudgetExceededException.class, () -> eventLoop.execute(endless[0]));
+    }
+}
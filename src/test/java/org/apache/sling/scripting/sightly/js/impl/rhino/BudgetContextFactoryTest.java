@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.rhino;
+
+import org.apache.sling.scripting.sightly.js.impl.BudgetExceededException;
+import org.junit.jupiter.api.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class BudgetContextFactoryTest {
+
+    @Test
+    void testInstructionBudget() {
+        BudgetContextFactory contextFactory = new BudgetContextFactory(100000);
+        Context context = contextFactory.enterExecution();
+        try {
+            Scriptable scope = context.initStandardObjects();
+            assertEquals(
+                    3.0,
+                    Context.toNumber(
+                            context.evaluateString(scope, "var i = 0; while (i < 3) { i++; } i", "small", 1, null)));
+            assertThrows(
+                    BudgetExceededException.class,
+                    () -> context.evaluateString(scope, "try { while (true) {} } catch (e) {}", "endless", 1, null));
+        } finally {
+            contextFactory.exitExecution(context);
+        }
+        assertNull(Context.getCurrentContext());
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.rhino;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.apache.sling.scripting.sightly.js.impl.BudgetExceededException;
+import org.apache.sling.scripting.sightly.js.impl.async.AsyncExtractor;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+import org.mozilla.javascript.ScriptableObject;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class HybridObjectTest {
+
+    private Context context;
+    private Scriptable scope;
+
+    @BeforeEach
+    void setUp() {
+        context = Context.enter();
+        scope = context.initStandardObjects();
+    }
+
+    @AfterEach
+    void tearDown() {
+        Context.exit();
+    }
+
+    @Test
+    void testPropertiesAreMemoized() {
+        HybridObject hybridObject = create(true);
+        assertEquals("title", hybridObject.getProperty("title"));
+        assertEquals("title", hybridObject.getProperty("title"));
+        assertNull(hybridObject.getProperty("missing"));
+        assertEquals(1L, calls());
+
+        hybridObject.delete("title");
+        assertNull(hybridObject.getProperty("title"));
+    }
+
+    @Test
+    void testMemoizationCanBeDisabled() {
+        HybridObject hybridObject = create(false);
+        hybridObject.getProperty("title");
+        hybridObject.getProperty("title");
+        assertEquals(2L, calls());
+    }
+
+    @Test
+    void testPropertyNames() {
+        HybridObject hybridObject = create(true);
+        hybridObject.put("second", hybridObject, "value");
+        assertEquals(Arrays.asList("title", "second"), new ArrayList<>(hybridObject.getPropertyNames()));
+        assertSame(hybridObject.getPropertyNames(), hybridObject.getPropertyNames());
+
+        hybridObject.delete("second");
+        assertEquals(Collections.singleton("title"), hybridObject.getPropertyNames());
+    }
+
+    @Test
+    void testReadsAfterTheExecutionEnterTheProviderFactory() {
+        Context.exit();
+        BudgetContextFactory contextFactory = new BudgetContextFactory(1000);
+        JsValueAdapter jsValueAdapter = new JsValueAdapter(
+                new AsyncExtractor(), JsValueAdapter.Mode.LAZY, JsValueAdapter.DEFAULT_MAX_DEPTH, true, contextFactory);
+        HybridObject hybridObject;
+        Context execution = contextFactory.enterExecution();
+        try {
+            Scriptable model = (Scriptable) execution.evaluateString(
+                    execution.initStandardObjects(),
+                    "({title: function () { for (var i = 0; i < 100000; i++) {} return 'title'; }})",
+                    "test.js",
+                    1,
+                    null);
+            hybridObject = (HybridObject) jsValueAdapter.adapt(model);
+        } finally {
+            contextFactory.exitExecution(execution);
+        }
+        try {
+            assertNull(Context.getCurrentContext());
+            assertThrows(BudgetExceededException.class, () -> hybridObject.getProperty("title"));
+            assertNull(Context.getCurrentContext());
+        } finally {
+            context = Context.enter();
+        }
+    }
+
+    private HybridObject create(boolean memoizeProperties) {
+        Scriptable model = (Scriptable) context.evaluateString(
+                scope, "var calls = 0; ({title: function () { calls++; return 'title'; }})", "test.js", 1, null);
+        JsValueAdapter jsValueAdapter = new JsValueAdapter(
+                new AsyncExtractor(), JsValueAdapter.Mode.LAZY, JsValueAdapter.DEFAULT_MAX_DEPTH, memoizeProperties);
+        return (HybridObject) jsValueAdapter.adapt(model);
+    }
+
+    private long calls() {
+        return ((Number) ScriptableObject.getProperty(scope, "calls")).longValue();
+    }
+}
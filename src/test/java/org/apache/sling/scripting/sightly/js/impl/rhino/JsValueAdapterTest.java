@@ -0,0 +1,167 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+package org.apache.sling.scripting.sightly.js.impl.rhino;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.sling.scripting.sightly.js.impl.async.AsyncExtractor;
+import org.apache.sling.scripting.sightly.js.spi.JsValueConverter;
+import org.jetbrains.annotations.NotNull;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mozilla.javascript.Context;
+import org.mozilla.javascript.Scriptable;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+class JsValueAdapterTest {
+
+    private Context context;
+    private Scriptable scope;
+
+    @BeforeEach
+    void setUp() {
+        context = Context.enter();
+        scope = context.initStandardObjects();
+    }
+
+    @AfterEach
+    void tearDown() {
+        Context.exit();
+    }
+
+    @Test
+    void testLazyArray() {
+        JsValueAdapter jsValueAdapter =
+                new JsValueAdapter(new AsyncExtractor(), JsValueAdapter.Mode.LAZY, JsValueAdapter.DEFAULT_MAX_DEPTH);
+        Scriptable array = context.newArray(scope, new Object[] {1.0, "two", 3.5});
+        Object adapted = jsValueAdapter.adapt(array);
+        List<?> list = assertInstanceOf(List.class, adapted);
+        assertEquals(3, list.size());
+        assertEquals(1L, list.get(0));
+        assertSame(list.get(1), list.get(1));
+        assertEquals(Arrays.asList(1L, "two", 3.5), list);
+    }
+
+    @Test
+    void testEagerArray() {
+        JsValueAdapter jsValueAdapter =
+                new JsValueAdapter(new AsyncExtractor(), JsValueAdapter.Mode.EAGER, JsValueAdapter.DEFAULT_MAX_DEPTH);
+        Scriptable array = context.newArray(scope, new Object[] {1.0, "two"});
+        assertArrayEquals(new Object[] {1L, "two"}, (Object[]) jsValueAdapter.adapt(array));
+    }
+
+    @Test
+    void testLazyMap() {
+        JsValueAdapter jsValueAdapter =
+                new JsValueAdapter(new AsyncExtractor(), JsValueAdapter.Mode.LAZY, JsValueAdapter.DEFAULT_MAX_DEPTH);
+        Map<String, Object> map = new HashMap<>();
+        map.put("count", 2.0);
+        map.put("items", Arrays.asList(1.0, 2.0));
+        Map<?, ?> adapted = assertInstanceOf(Map.class, jsValueAdapter.adapt(map));
+        assertEquals(2L, adapted.get("count"));
+        assertEquals(Arrays.asList(1L, 2L), adapted.get("items"));
+        assertSame(adapted.get("items"), adapted.get("items"));
+        assertEquals(2, adapted.entrySet().size());
+    }
+
+    @Test
+    void testSharedAndCyclicObjects() {
+        JsValueAdapter jsValueAdapter =
+                new JsValueAdapter(new AsyncExtractor(), JsValueAdapter.Mode.EAGER, JsValueAdapter.DEFAULT_MAX_DEPTH);
+        Scriptable parent = (Scriptable) context.evaluateString(
+                scope,
+                "var shared = {name: 'shared'};"
+                        + "var parent = {children: [], first: shared, second: shared};"
+                        + "parent.children.push({parent: parent});"
+                        + "parent.self = [parent.children];"
+                        + "parent",
+                "test.js",
+                1,
+                null);
+        HybridObject adapted = (HybridObject) jsValueAdapter.adapt(parent);
+        assertSame(adapted.getProperty("first"), adapted.getProperty("second"));
+        Object[] children = (Object[]) adapted.getProperty("children");
+        assertSame(adapted, ((HybridObject) children[0]).getProperty("parent"));
+        assertSame(children, ((Object[]) adapted.getProperty("self"))[0]);
+    }
+
+    @Test
+    void testEagerConversionIsBounded() {
+        JsValueAdapter jsValueAdapter = new JsValueAdapter(new AsyncExtractor(), JsValueAdapter.Mode.EAGER, 2);
+        Scriptable array = (Scriptable) context.evaluateString(scope, "[[[[1]]]]", "test.js", 1, null);
+        Object[] first = (Object[]) jsValueAdapter.adapt(array);
+        Object[] second = (Object[]) first[0];
+        List<?> third = assertInstanceOf(List.class, second[0]);
+        assertEquals(Arrays.asList(1L), ((List<?>) third.get(0)));
+    }
+
+    @Test
+    void testThenablesAreToldApartFromPlainObjects() {
+        JsValueAdapter jsValueAdapter = new JsValueAdapter(new AsyncExtractor());
+        Scriptable values = (Scriptable) context.evaluateString(
+                scope,
+                "var proto = {then: function(resolve) { resolve('two'); }};"
+                        + "[{a: 1}, {then: function(resolve) { resolve('one'); }}, Object.create(proto), {b: 2}]",
+                "test.js",
+                1,
+                null);
+        assertInstanceOf(HybridObject.class, jsValueAdapter.adapt(values.get(0, values)));
+        assertEquals("one", jsValueAdapter.adapt(values.get(1, values)));
+        assertEquals("two", jsValueAdapter.adapt(values.get(2, values)));
+        assertInstanceOf(HybridObject.class, jsValueAdapter.adapt(values.get(3, values)));
+    }
+
+    @Test
+    void testConvertersAreDispatchedPerClass() {
+        JsValueAdapter jsValueAdapter =
+                new JsValueAdapter(new AsyncExtractor(), JsValueAdapter.Mode.LAZY, JsValueAdapter.DEFAULT_MAX_DEPTH);
+        AtomicInteger checks = new AtomicInteger();
+        jsValueAdapter.setConverters(Collections.singletonList(new JsValueConverter() {
+            @Override
+            public boolean handles(@NotNull Class<?> type) {
+                checks.incrementAndGet();
+                return BigDecimal.class.equals(type);
+            }
+
+            @Override
+            public Object convert(@NotNull Object value) {
+                return ((BigDecimal) value).toPlainString();
+            }
+        }));
+        assertEquals("1.50", jsValueAdapter.adapt(new BigDecimal("1.50")));
+        assertEquals("2.00", jsValueAdapter.adapt(new BigDecimal("2.00")));
+        assertEquals(2L, jsValueAdapter.adapt(2.0));
+        assertEquals(3L, jsValueAdapter.adapt(3.0));
+        assertEquals(2, checks.get());
+        Object date = context.evaluateString(scope, "new Date(0)", "test.js", 1, null);
+        assertEquals(new Date(0), jsValueAdapter.adapt(date));
+    }
+}
@@ -30,6 +30,8 @@ import org.apache.sling.api.resource.Resource;
 import org.apache.sling.api.resource.ResourceResolver;
 import org.apache.sling.api.scripting.SlingBindings;
 import org.apache.sling.scripting.core.ScriptNameAwareReader;
+import org.apache.sling.scripting.sightly.SightlyException;
+import org.apache.sling.scripting.sightly.js.impl.cache.ResolutionCache;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
@@ -40,10 +42,12 @@ import org.mockito.quality.Strictness;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -131,4 +135,34 @@ class DependencyResolverTest {
         verify(stream, never()).read();
         verify(stream, never()).close();
     }
+
+    @Test
+    void testResolutionIsCached() {
+        when(request.getResource()).thenReturn(content);
+        when(content.getResourceType()).thenReturn("content");
+        when(callerParent.getChild("caller.js")).thenReturn(dependency);
+        when(dependency.adaptTo(InputStream.class)).thenReturn(mock(InputStream.class));
+        DependencyResolver cachingResolver =
+                new DependencyResolver(scriptingResourceResolver, new ResolutionCache(10), null);
+
+        assertEquals(SCRIPT_PATH, cachingResolver.resolve(bindings, "caller.js").getScriptName());
+        assertEquals(SCRIPT_PATH, cachingResolver.resolve(bindings, "caller.js").getScriptName());
+
+        // the dependency is only looked up relative to the caller once
+        verify(callerParent, times(1)).getChild("caller.js");
+    }
+
+    @Test
+    void testMissingDependencyIsCached() {
+        when(request.getResource()).thenReturn(content);
+        when(content.getResourceType()).thenReturn("content");
+        DependencyResolver cachingResolver =
+                new DependencyResolver(scriptingResourceResolver, new ResolutionCache(10), null);
+
+        assertThrows(SightlyException.class, () -> cachingResolver.resolve(bindings, "missing.js"));
+        assertThrows(SightlyException.class, () -> cachingResolver.resolve(bindings, "missing.js"));
+
+        verify(scriptingResourceResolver, times(1)).getResource("missing.js");
+        verify(callerParent, times(1)).getChild("missing.js");
+    }
 }